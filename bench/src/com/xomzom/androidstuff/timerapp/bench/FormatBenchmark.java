@@ -0,0 +1,95 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.xomzom.androidstuff.timerapp.DigitFormatter;
+
+/**
+ * Benchmarks the formatting of the displayed time: whole seconds on every
+ * tick, and fractions of a second on every display frame. The String based
+ * formatting the display used before is measured too, as a baseline for the
+ * gc profiler's allocation numbers.
+ *
+ * @author dedi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The value to format: a short interval, and a long countdown.
+     */
+    @Param({ "7", "86399" })
+    public int value;
+
+    /**
+     * The formatting buffer, reused like the activity's.
+     */
+    private final char[] m_buffer = new char[DigitFormatter.MAX_CHARS];
+
+
+    //
+    // Operations.
+    //
+
+    @Benchmark
+    public char format()
+    {
+        int start = DigitFormatter.format(value, m_buffer);
+        return m_buffer[start];
+    }
+
+    @Benchmark
+    public char formatHundredths()
+    {
+        int start = DigitFormatter.formatFixed(value * 100L, 2, m_buffer);
+        return m_buffer[start];
+    }
+
+    @Benchmark
+    public String formatString()
+    {
+        return String.valueOf(value);
+    }
+}
@@ -26,74 +26,68 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+package com.xomzom.androidstuff.timerapp.bench;
 
-package com.xomzom.androidstuff.timerapp;
-import android.content.Context;
-import android.graphics.Paint;
-import android.util.AttributeSet;
-import android.util.TypedValue;
-import android.widget.TextView;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.xomzom.androidstuff.timerapp.TimerSettings;
 
 /**
- * The chronometer view. This is basically a view that maximizes the text in
- * it depending on it's size.
+ * Benchmarks the settings parsing done when a preference changes: a stored
+ * int, a stored value that isn't an int (which goes through an exception),
+ * and the copy of the settings snapshot with the new value.
  *
  * @author dedi
  */
-public class ChronoTextView extends TextView
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsBenchmark
 {
-
     //
     // Members.
     //
 
+    /**
+     * The stored values. Fields rather than constants, so they aren't folded.
+     */
+    private String m_intValue = "30";
+    private String m_badValue = "thirty";
+
+    /**
+     * The settings snapshot to update.
+     */
+    private TimerSettings m_settings = new TimerSettings(8, 30, 10, null,
+            null, true, false, false, 0);
 
 
     //
     // Operations.
     //
 
-    
-    public ChronoTextView(Context context)
-    {
-        super(context);
-    }
-
-    public ChronoTextView(Context context, AttributeSet attrs)
-    {
-        super(context, attrs);
-    }
-
-    /*
-     * Set the text size so that the current text is maximized.
-     */
-    private void setTextSize() 
+    @Benchmark
+    public int parseInt()
     {
-        String text = getText().toString();
-        int textChars = text.length();
-        if (textChars < 2)
-        {
-            textChars = 2;
-        }
-        int displayWidth = getWidth() - getPaddingLeft() - getPaddingRight();
-        int displayHeight =
-            (int)((getHeight() - getPaddingTop() - getPaddingBottom()) * 0.8);
-        int fontMaxWidth = displayWidth / textChars;
-        int fontMaxSize = Math.min(fontMaxWidth, displayHeight);
-        setTextSize(TypedValue.COMPLEX_UNIT_PX, fontMaxSize);
+        return TimerSettings.parseInt(m_intValue, 0);
     }
 
-    @Override
-    protected void onTextChanged(CharSequence text, int start,
-                                 int before, int after)
+    @Benchmark
+    public int parseBadInt()
     {
-        setTextSize();
+        return TimerSettings.parseInt(m_badValue, 0);
     }
 
-    @Override
-    protected void onSizeChanged (int w, int h, int oldw, int oldh)
+    @Benchmark
+    public TimerSettings updateSetting()
     {
-        super.onSizeChanged(w, h, oldw, oldh);
-        setTextSize();
+        return m_settings.withIntervalLength(
+                TimerSettings.parseInt(m_intValue, 0));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.xomzom.androidstuff.timerapp.Program;
+import com.xomzom.androidstuff.timerapp.Timeline;
+
+/**
+ * Benchmarks the timeline lookups done by the timer and the service: finding
+ * the segment of a point in time, and the segment's end, interval number and
+ * next cue. Lookups are at random points, so they aren't all served from the
+ * same run of segments.
+ *
+ * @author dedi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimelineBenchmark
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of precomputed lookup points (a power of 2).
+     */
+    private final static int POINTS = 1024;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The timeline shape: simple intervals, or a program with nested
+     * sequences.
+     */
+    @Param({ "intervals", "program" })
+    public String shape;
+
+    /**
+     * The timeline under test.
+     */
+    private Timeline m_timeline;
+
+    /**
+     * The lookup points, in milliseconds from the start.
+     */
+    private final long[] m_points = new long[POINTS];
+
+    /**
+     * The segments of the lookup points.
+     */
+    private final long[] m_segments = new long[POINTS];
+
+    /**
+     * The index of the next lookup point.
+     */
+    private int m_next;
+
+
+    //
+    // Operations.
+    //
+
+    @Setup
+    public void setUp()
+    {
+        if (shape.equals("intervals"))
+            m_timeline = Timeline.forIntervals(10, 60, 100);
+        else
+        {
+            // Ten rounds of a Tabata and a minute's rest.
+            Program.Sequence round = new Program.Sequence(1,
+                    new Program.Sequence(8,
+                            new Program.Segment(20, Program.CUE_RINGTONE),
+                            new Program.Segment(10, Program.CUE_NONE)),
+                    new Program.Segment(60, Program.CUE_RINGTONE));
+            m_timeline = new Program("Bench", new Program.Sequence(1,
+                    new Program.Segment(10, Program.CUE_RINGTONE),
+                    new Program.Sequence(10, round))).compile();
+        }
+        Random random = new Random(1);
+        long total = m_timeline.getTotalLength();
+        for (int i = 0; i < POINTS; i++)
+        {
+            m_points[i] = (long)(random.nextDouble() * total);
+            m_segments[i] = m_timeline.findSegment(m_points[i]);
+        }
+    }
+
+    @Benchmark
+    public long findSegment()
+    {
+        return m_timeline.findSegment(m_points[nextPoint()]);
+    }
+
+    @Benchmark
+    public long getSegmentEnd()
+    {
+        return m_timeline.getSegmentEnd(m_segments[nextPoint()]);
+    }
+
+    @Benchmark
+    public long getIntervalNumber()
+    {
+        return m_timeline.getIntervalNumber(m_segments[nextPoint()]);
+    }
+
+    @Benchmark
+    public long findCueSegment()
+    {
+        return m_timeline.findCueSegment(m_segments[nextPoint()]);
+    }
+
+    /**
+     * Get the index of the next lookup point, going around the points.
+     */
+    private int nextPoint()
+    {
+        m_next = (m_next + 1) & (POINTS - 1);
+        return m_next;
+    }
+}
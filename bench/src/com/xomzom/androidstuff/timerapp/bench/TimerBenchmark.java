@@ -0,0 +1,193 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.xomzom.androidstuff.timerapp.PausableTimerListener;
+import com.xomzom.androidstuff.timerapp.Timeline;
+import com.xomzom.androidstuff.timerapp.TimerEngine;
+
+/**
+ * Benchmarks the timer's tick path: a tick as delivered by the scheduler
+ * (finding the segment, rounding the remaining time and rescheduling), and
+ * the remaining time lookup done on every display frame.
+ * The clock is advanced by hand, and the scheduler does nothing, so only the
+ * timer's own work is measured.
+ *
+ * @author dedi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimerBenchmark
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The clock step between ticks: a second, like the real tick loop.
+     */
+    private final static long TICK_STEP = 1000;
+
+    /**
+     * The clock step between display frames, at 60 frames per second.
+     */
+    private final static long FRAME_STEP = 16;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * Whether ticks are delivered to the listener, or the timer only waits
+     * for the boundaries (as it does while the timer screen is hidden).
+     */
+    @Param({ "true", "false" })
+    public boolean ticksEnabled;
+
+    /**
+     * The clock driving the timer.
+     */
+    private final ManualClock m_clock = new ManualClock();
+
+    /**
+     * The timer under test.
+     */
+    private TimerEngine m_timer;
+
+
+    //
+    // Operations.
+    //
+
+    @Setup(Level.Iteration)
+    public void setUp(final Blackhole blackhole)
+    {
+        m_timer = new TimerEngine(new PausableTimerListener() {
+            @Override
+            public void onTimerTick(int secondsTillFinish)
+            {
+                blackhole.consume(secondsTillFinish);
+            }
+
+            @Override
+            public void onIntervalFinished()
+            {
+                blackhole.consume(true);
+            }
+        }, m_clock, new NullScheduler());
+        m_timer.setTicksEnabled(ticksEnabled);
+        // Enough one minute intervals to never run out during an iteration.
+        m_timer.start(Timeline.forIntervals(10, 60, Integer.MAX_VALUE));
+    }
+
+    /**
+     * A tick a second, crossing an interval boundary once a minute.
+     */
+    @Benchmark
+    public void tick()
+    {
+        m_clock.advance(TICK_STEP);
+        m_timer.tick();
+    }
+
+    /**
+     * The remaining time lookup of a sub-second display frame. When a frame
+     * reaches the end of the segment, the boundary is delivered (as the tick
+     * loop would), so the display keeps counting down a real segment instead
+     * of sitting at 0 after the first one.
+     */
+    @Benchmark
+    public long frame()
+    {
+        long now = m_clock.advance(FRAME_STEP);
+        long remaining = m_timer.getMillisRemaining(now);
+        if (remaining == 0)
+            m_timer.tick();
+        return remaining;
+    }
+
+    /**
+     * A clock that only moves when told to.
+     */
+    private static class ManualClock implements TimerEngine.Clock
+    {
+        /**
+         * The current time.
+         */
+        private long m_now;
+
+        /**
+         * Move the clock forward.
+         *
+         * @return The new time.
+         */
+        long advance(long millis)
+        {
+            m_now += millis;
+            return m_now;
+        }
+
+        @Override
+        public long now()
+        {
+            return m_now;
+        }
+    }
+
+    /**
+     * A scheduler that drops its tasks; the benchmark ticks by itself.
+     */
+    private static class NullScheduler implements TimerEngine.Scheduler
+    {
+        @Override
+        public void schedule(Runnable task, long delay)
+        {
+        }
+
+        @Override
+        public void cancel(Runnable task)
+        {
+        }
+    }
+}
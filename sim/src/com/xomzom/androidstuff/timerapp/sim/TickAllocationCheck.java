@@ -0,0 +1,286 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.sim;
+
+import java.lang.management.ManagementFactory;
+
+import com.xomzom.androidstuff.timerapp.DigitFormatter;
+import com.xomzom.androidstuff.timerapp.PausableTimerListener;
+import com.xomzom.androidstuff.timerapp.Timeline;
+import com.xomzom.androidstuff.timerapp.TimerEngine;
+import com.xomzom.androidstuff.timerapp.Tracer;
+
+/**
+ * Checks that the steady state tick path allocates nothing: the timer's
+ * ticks and boundaries (with tracing on), the formatting of each tick's
+ * seconds, and the per-frame remaining time lookup and formatting. Each
+ * formatted value is read back from the buffer and compared to the value
+ * formatted, so the check also covers the output of the formatting.
+ * The bytes allocated by the thread are read from the JVM (through
+ * com.sun.management.ThreadMXBean) around a run of ticks, after a warm-up
+ * run that takes care of class loading and other one-time work. The clock
+ * and scheduler are plain fields, so the harness itself allocates nothing.
+ * Run it with -Xint, so the JIT's escape analysis can't hide allocations
+ * that an Android runtime would make.
+ * Usage: TickAllocationCheck [ticks]
+ *
+ * @author dedi
+ */
+public class TickAllocationCheck implements PausableTimerListener,
+        TimerEngine.Clock, TimerEngine.Scheduler
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of ticks run before measuring.
+     */
+    private final static int WARMUP_TICKS = 10000;
+
+    /**
+     * The default number of ticks measured.
+     */
+    private final static int DEFAULT_TICKS = 100000;
+
+    /**
+     * The clock step between display frames, at 60 frames per second.
+     */
+    private final static long FRAME_STEP = 16;
+
+    /**
+     * Decimals shown by the frame display.
+     */
+    private final static int FRAME_DECIMALS = 2;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The timer being checked.
+     */
+    private final TimerEngine m_timer;
+
+    /**
+     * The formatting buffer, as kept by the views.
+     */
+    private final char[] m_buffer = new char[DigitFormatter.MAX_CHARS];
+
+    /**
+     * The current time.
+     */
+    private long m_now;
+
+    /**
+     * The scheduled task, or null; and the time it's scheduled for.
+     */
+    private Runnable m_task;
+    private long m_taskTime;
+
+    /**
+     * The number of characters formatted and checked.
+     */
+    private long m_formattedChars;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Run the check, and report the result.
+     */
+    public static void main(String[] args)
+    {
+        int ticks = DEFAULT_TICKS;
+        if (args.length > 0)
+            ticks = Integer.parseInt(args[0]);
+
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean)bean)
+                .isThreadAllocatedMemorySupported())
+        {
+            System.out.println("Allocation counting is not supported by " +
+                               "this JVM; check skipped.");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)bean;
+        long thread = Thread.currentThread().getId();
+
+        TickAllocationCheck check = new TickAllocationCheck();
+        check.runTicks(WARMUP_TICKS);
+
+        // The cost of reading the counter, if any, is taken off the result.
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+        before = threads.getThreadAllocatedBytes(thread);
+        int ran = check.runTicks(ticks);
+        long allocated =
+            threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+        if (ran != ticks)
+        {
+            System.err.println("The session ended after " + ran + " of " +
+                               ticks + " ticks.");
+            System.exit(1);
+        }
+        if (allocated > 0)
+        {
+            System.err.println(ticks + " ticks allocated " + allocated +
+                               " bytes (" + ((double)allocated / ticks) +
+                               " bytes per tick).");
+            System.exit(1);
+        }
+        System.out.println(ticks + " ticks, " + check.m_formattedChars +
+                           " characters formatted, 0 bytes allocated.");
+    }
+
+    /**
+     * Create the check's timer, and start a session long enough for any
+     * number of ticks, with a boundary every minute.
+     */
+    private TickAllocationCheck()
+    {
+        Tracer tracer = new Tracer();
+        tracer.setEnabled(true);
+        m_timer = new TimerEngine(this, this, this);
+        m_timer.setTracer(tracer);
+        m_timer.start(Timeline.forIntervals(10, 60, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Run the given number of ticks, with the display frames between them.
+     *
+     * @return The number of ticks actually run.
+     */
+    private int runTicks(int ticks)
+    {
+        for (int i = 0; i < ticks; i++)
+        {
+            if (m_task == null)
+                return i;
+            while (m_now + FRAME_STEP < m_taskTime)
+            {
+                m_now += FRAME_STEP;
+                long hundredths = m_timer.getMillisRemaining(m_now) / 10;
+                int start = DigitFormatter.formatFixed(hundredths,
+                        FRAME_DECIMALS, m_buffer);
+                checkFormatted(hundredths, FRAME_DECIMALS, start);
+            }
+            m_now = m_taskTime;
+            Runnable task = m_task;
+            m_task = null;
+            task.run();
+        }
+        return ticks;
+    }
+
+    /**
+     * Read back the value formatted into the end of the buffer, failing the
+     * check if it isn't the expected value in the expected format. Allocates
+     * nothing unless the check fails.
+     *
+     * @param expected The value that was formatted.
+     * @param decimals The number of decimal places it was formatted with.
+     * @param start The index of the first formatted char.
+     */
+    private void checkFormatted(long expected, int decimals, int start)
+    {
+        int end = m_buffer.length;
+        int point = (decimals == 0 ? end : end - decimals - 1);
+        boolean negative = (start < end && m_buffer[start] == '-');
+        int first = (negative ? start + 1 : start);
+        // At least one whole digit, and no leading zeros.
+        boolean ok = (first < point &&
+                      (first == point - 1 || m_buffer[first] != '0'));
+        long value = 0;
+        for (int pos = first; ok && pos < end; pos++)
+        {
+            char c = m_buffer[pos];
+            if (pos == point)
+            {
+                ok = (c == '.');
+            }
+            else
+            {
+                ok = (c >= '0' && c <= '9');
+                value = value * 10 + (c - '0');
+            }
+        }
+        if (negative)
+            value = -value;
+        if (!ok || value != expected)
+        {
+            System.err.println(expected + " (" + decimals + " decimals) " +
+                               "formatted as \"" +
+                               new String(m_buffer, start, end - start) +
+                               "\".");
+            System.exit(1);
+        }
+        m_formattedChars += end - start;
+    }
+
+    @Override
+    public long now()
+    {
+        return m_now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay)
+    {
+        m_task = task;
+        m_taskTime = m_now + Math.max(delay, 0);
+    }
+
+    @Override
+    public void cancel(Runnable task)
+    {
+        if (m_task == task)
+            m_task = null;
+    }
+
+    @Override
+    public void onTimerTick(int secondsTillFinish)
+    {
+        int start = DigitFormatter.format(secondsTillFinish, m_buffer);
+        checkFormatted(secondsTillFinish, 0, start);
+    }
+
+    @Override
+    public void onIntervalFinished()
+    {
+        // Nothing to do: cues are played outside the timer core.
+    }
+}
@@ -0,0 +1,406 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.sim;
+
+import java.util.Random;
+
+import com.xomzom.androidstuff.timerapp.PausableTimerListener;
+import com.xomzom.androidstuff.timerapp.Program;
+import com.xomzom.androidstuff.timerapp.Timeline;
+import com.xomzom.androidstuff.timerapp.TimerEngine;
+
+/**
+ * Checks the timeline and the timer at the extremes the settings allow:
+ * Integer.MAX_VALUE seconds of countdown, interval length and number of
+ * intervals. Checks the segment counts, the saturation of the total length
+ * and of the segment ends, segment lookups at the edges of segments and of
+ * the session, and sessions restored close to their end. Also checks that
+ * programs repeated Integer.MAX_VALUE times (empty, single run, and longer
+ * bodies) compile quickly; run it with -Xint, so the JIT can't remove a loop
+ * that runs once per repetition. Also checks the limit on nesting sequences.
+ * Usage: TimelineExtremesCheck
+ *
+ * @author dedi
+ */
+public class TimelineExtremesCheck implements PausableTimerListener
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static long MILLIS_IN_SECOND = 1000;
+
+    /**
+     * The longest segment the settings allow, in milliseconds.
+     */
+    private final static long MAX_LENGTH =
+        Integer.MAX_VALUE * MILLIS_IN_SECOND;
+
+    /**
+     * The largest number of segments the settings allow: a countdown and
+     * Integer.MAX_VALUE intervals.
+     */
+    private final static long MAX_SEGMENTS = 1L << 31;
+
+    /**
+     * The most events a restored session may take to finish, so a timer
+     * that spins through segments fails instead of hanging.
+     */
+    private final static int MAX_EVENTS = 100000;
+
+    /**
+     * The longest a program may take to compile, in milliseconds. Programs
+     * whose compilation steps through their repetitions take minutes.
+     */
+    private final static long MAX_COMPILE_MILLIS = 1000;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The number of boundaries delivered.
+     */
+    private long m_boundaries;
+
+    /**
+     * The seconds value of the last tick, or -1.
+     */
+    private int m_lastTickSeconds = -1;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Run the checks, and report the result.
+     */
+    public static void main(String[] args)
+    {
+        try {
+            checkLongestSession();
+            checkLongestIntervals();
+            checkMostSegments();
+            checkRestoreNearEnd(Timeline.forIntervals(0, 1, Integer.MAX_VALUE),
+                                2500);
+            checkRestoreNearEnd(
+                    Timeline.forIntervals(Integer.MAX_VALUE, 1,
+                                          Integer.MAX_VALUE), 1000);
+            checkRestoreNearEnd(Timeline.forIntervals(Integer.MAX_VALUE,
+                                                      Integer.MAX_VALUE, 1),
+                                1500);
+            checkRestoreInSaturatedSession();
+            checkRepeatedPrograms();
+        }
+        catch (IllegalStateException e)
+        {
+            System.err.println("Extremes check failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Timeline extremes: all checks passed.");
+    }
+
+    /**
+     * The longest session: the longest countdown and the most intervals of
+     * the longest length. Its length doesn't fit in a long.
+     */
+    private static void checkLongestSession()
+    {
+        Timeline timeline = Timeline.forIntervals(Integer.MAX_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE);
+        long last = MAX_SEGMENTS - 1;
+        check(timeline.getSegmentCount() == MAX_SEGMENTS,
+              "segment count " + timeline.getSegmentCount());
+        check(timeline.getTotalLength() == Long.MAX_VALUE,
+              "total length " + timeline.getTotalLength() + " not saturated");
+        check(timeline.getIntervalNumber(0) == 0 &&
+              timeline.getIntervalNumber(last) == Integer.MAX_VALUE,
+              "interval numbers " + timeline.getIntervalNumber(0) + ".." +
+              timeline.getIntervalNumber(last));
+
+        // Segment ends grow by a segment length until they saturate, and
+        // never go back.
+        long lastUnsaturated = Long.MAX_VALUE / MAX_LENGTH - 1;
+        check(timeline.getSegmentEnd(lastUnsaturated) ==
+              (lastUnsaturated + 1) * MAX_LENGTH,
+              "end of segment " + lastUnsaturated);
+        check(timeline.getSegmentEnd(lastUnsaturated + 1) == Long.MAX_VALUE,
+              "end of segment " + (lastUnsaturated + 1) + " not saturated");
+        check(timeline.getSegmentEnd(last) == Long.MAX_VALUE,
+              "end of the last segment not saturated");
+        long previousEnd = 0;
+        for (long segment = 0; segment < MAX_SEGMENTS;
+             segment += MAX_SEGMENTS / 1024 - 1)
+        {
+            long end = timeline.getSegmentEnd(segment);
+            check(end >= previousEnd, "end of segment " + segment +
+                  " before the end of an earlier one");
+            previousEnd = end;
+        }
+
+        checkFindSegment(timeline, 0, 0);
+        checkFindSegment(timeline, MAX_LENGTH - 1, 0);
+        checkFindSegment(timeline, MAX_LENGTH, 1);
+        checkFindSegment(timeline, Long.MAX_VALUE - 1,
+                         (Long.MAX_VALUE - 1) / MAX_LENGTH);
+        checkFindSegment(timeline, Long.MAX_VALUE, MAX_SEGMENTS);
+        check(timeline.findCueSegment(last) == last, "cue of last segment");
+    }
+
+    /**
+     * The most intervals of the longest length, without a countdown.
+     */
+    private static void checkLongestIntervals()
+    {
+        Timeline timeline = Timeline.forIntervals(0, Integer.MAX_VALUE,
+                                                  Integer.MAX_VALUE);
+        check(timeline.getSegmentCount() == Integer.MAX_VALUE,
+              "segment count " + timeline.getSegmentCount());
+        check(timeline.getTotalLength() == Long.MAX_VALUE,
+              "total length " + timeline.getTotalLength() + " not saturated");
+        check(timeline.getIntervalNumber(0) == 1, "first interval number");
+        checkFindSegment(timeline, 3 * MAX_LENGTH - 1, 2);
+        checkFindSegment(timeline, 3 * MAX_LENGTH, 3);
+    }
+
+    /**
+     * The most segments in a session whose length fits in a long: the
+     * longest countdown, and the most one second intervals.
+     */
+    private static void checkMostSegments()
+    {
+        Timeline timeline = Timeline.forIntervals(Integer.MAX_VALUE, 1,
+                                                  Integer.MAX_VALUE);
+        long total = 2 * MAX_LENGTH;
+        long last = MAX_SEGMENTS - 1;
+        check(timeline.getSegmentCount() == MAX_SEGMENTS,
+              "segment count " + timeline.getSegmentCount());
+        check(timeline.getTotalLength() == total,
+              "total length " + timeline.getTotalLength());
+        check(timeline.getSegmentEnd(last) == total, "end of last segment");
+        check(timeline.getSegmentStart(last) == total - MILLIS_IN_SECOND,
+              "start of last segment");
+        checkFindSegment(timeline, MAX_LENGTH - 1, 0);
+        checkFindSegment(timeline, MAX_LENGTH, 1);
+        checkFindSegment(timeline, total - 1, last);
+        checkFindSegment(timeline, total, MAX_SEGMENTS);
+    }
+
+    /**
+     * Restore a session the given number of milliseconds before its end,
+     * and run it to the end.
+     */
+    private static void checkRestoreNearEnd(Timeline timeline, long left)
+    {
+        long total = timeline.getTotalLength();
+        long elapsed = total - left;
+        long segment = timeline.findSegment(elapsed);
+        long expectedBoundaries = timeline.getSegmentCount() - segment;
+
+        TimelineExtremesCheck listener = new TimelineExtremesCheck();
+        VirtualClock clock = new VirtualClock(0, new Random(0), 0);
+        TimerEngine timer = new TimerEngine(listener, clock, clock);
+        timer.start(timeline, elapsed);
+        check(timer.getCurrentSegment() == segment,
+              "restored to segment " + timer.getCurrentSegment() +
+              " instead of " + segment);
+        check(timer.getMillisRemaining() ==
+              timeline.getSegmentEnd(segment) - elapsed,
+              "restored with " + timer.getMillisRemaining() + "ms left");
+
+        int events = 0;
+        while (clock.runNext())
+        {
+            check(++events <= MAX_EVENTS,
+                  "restored session didn't finish after " + events +
+                  " events");
+        }
+        check(!timer.isStarted(), "restored session didn't finish");
+        check(clock.now() == left,
+              "restored session finished after " + clock.now() +
+              "ms instead of " + left + "ms");
+        check(listener.m_boundaries == expectedBoundaries,
+              listener.m_boundaries + " boundaries instead of " +
+              expectedBoundaries);
+    }
+
+    /**
+     * Restore a session whose length doesn't fit in a long, a moment before
+     * the end of one of its (68 year long) intervals, and run it to the
+     * boundary.
+     */
+    private static void checkRestoreInSaturatedSession()
+    {
+        Timeline timeline = Timeline.forIntervals(Integer.MAX_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE);
+        long elapsed = 4 * MAX_LENGTH - 1500;
+
+        TimelineExtremesCheck listener = new TimelineExtremesCheck();
+        VirtualClock clock = new VirtualClock(0, new Random(0), 0);
+        TimerEngine timer = new TimerEngine(listener, clock, clock);
+        timer.start(timeline, elapsed);
+        check(timer.getCurrentSegment() == 3, "restored to segment " +
+              timer.getCurrentSegment() + " instead of 3");
+        check(timer.getMillisRemaining() == 1500,
+              "restored with " + timer.getMillisRemaining() + "ms left");
+        check(listener.m_lastTickSeconds == 2,
+              "restored showing " + listener.m_lastTickSeconds + "s");
+
+        while (listener.m_boundaries == 0 && clock.runNext())
+        {
+            // Wait for the boundary.
+        }
+        check(listener.m_boundaries == 1 && timer.getCurrentSegment() == 4,
+              "boundary not delivered");
+        check(clock.now() == 1500,
+              "boundary delivered at " + clock.now());
+    }
+
+    /**
+     * Compile programs whose sequences are repeated Integer.MAX_VALUE times.
+     */
+    private static void checkRepeatedPrograms()
+    {
+        int max = Integer.MAX_VALUE;
+        Program.Segment segment = new Program.Segment(10,
+                Program.CUE_RINGTONE);
+
+        // Empty bodies, nested.
+        checkCompile(new Program.Sequence(max, new Program.Sequence(max,
+                new Program.Sequence(max))), 0);
+        // Empty bodies next to a segment.
+        checkCompile(new Program.Sequence(max, new Program.Sequence(max),
+                segment, new Program.Sequence(max)), max);
+        // A body that merges into a single run.
+        checkCompile(new Program.Sequence(max, segment, segment), 2L * max);
+        // A body of two runs is too long to compile.
+        checkCompile(new Program.Sequence(max, segment,
+                new Program.Segment(20, Program.CUE_RINGTONE)), -1);
+
+        // Sequences may nest MAX_DEPTH deep, and no deeper.
+        Program.Sequence nested = new Program.Sequence(2, segment);
+        for (int depth = 1; depth < Program.MAX_DEPTH; depth++)
+            nested = new Program.Sequence(2, nested);
+        checkCompile(nested, 1L << Program.MAX_DEPTH);
+        boolean rejected = false;
+        try {
+            new Program.Sequence(2, nested);
+        }
+        catch (IllegalArgumentException e)
+        {
+            rejected = true;
+        }
+        check(rejected, "sequence nested deeper than " + Program.MAX_DEPTH);
+    }
+
+    /**
+     * Compile a program with the given body on a separate thread, failing if
+     * it takes too long, and check its segment count.
+     *
+     * @param segments The expected number of segments, or -1 if the program
+     * is expected to be too long to compile.
+     */
+    private static void checkCompile(Program.Sequence body, long segments)
+    {
+        final Program program = new Program("", body);
+        final long[] compiled = { -2 };
+        Thread thread = new Thread("compile") {
+            @Override
+            public void run()
+            {
+                long count;
+                try {
+                    count = program.compile().getSegmentCount();
+                }
+                catch (IllegalArgumentException e)
+                {
+                    count = -1;
+                }
+                synchronized (compiled)
+                {
+                    compiled[0] = count;
+                }
+            }
+        };
+        // A stuck compilation must not keep the check from exiting.
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(MAX_COMPILE_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (compiled)
+        {
+            check(compiled[0] != -2, "program didn't compile within " +
+                  MAX_COMPILE_MILLIS + "ms");
+            check(compiled[0] == segments, "program compiled into " +
+                  compiled[0] + " segments instead of " + segments);
+        }
+    }
+
+    /**
+     * Check that the given time is in the given segment.
+     */
+    private static void checkFindSegment(Timeline timeline, long elapsed,
+                                         long segment)
+    {
+        long found = timeline.findSegment(elapsed);
+        check(found == segment, "time " + elapsed + " found in segment " +
+              found + " instead of " + segment);
+    }
+
+    @Override
+    public void onTimerTick(int secondsTillFinish)
+    {
+        m_lastTickSeconds = secondsTillFinish;
+    }
+
+    @Override
+    public void onIntervalFinished()
+    {
+        m_boundaries++;
+    }
+
+    /**
+     * Fail the check if the given condition doesn't hold.
+     */
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.sim;
+
+import java.util.Random;
+
+import com.xomzom.androidstuff.timerapp.PausableTimerListener;
+import com.xomzom.androidstuff.timerapp.Program;
+import com.xomzom.androidstuff.timerapp.Timeline;
+import com.xomzom.androidstuff.timerapp.TimerEngine;
+
+/**
+ * Runs many random timer sessions on a virtual clock, and checks the timer's
+ * behavior in each: boundaries never drift from their planned deadlines and
+ * are never later than the simulated jitter, every tick shows the remaining
+ * seconds rounded up, no second is skipped, and pausing keeps the remaining
+ * time to the millisecond.
+ * Sessions are random interval settings or programs, with random callback
+ * jitter, pauses, and ticks turned off and on. Each session has its own seed,
+ * so a failure can be replayed.
+ * Usage: TimerSimulation [sessions] [seed]
+ *
+ * @author dedi
+ */
+public class TimerSimulation implements PausableTimerListener
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+    /**
+     * The most a simulated callback may be late, in milliseconds. Must stay
+     * well below a second, or ticks may legitimately skip seconds.
+     */
+    private final static int MAX_JITTER = 200;
+
+    /**
+     * The default number of sessions to run.
+     */
+    private final static int DEFAULT_SESSIONS = 10000;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The random source of the session.
+     */
+    private final Random m_random;
+
+    /**
+     * The virtual clock the session runs on.
+     */
+    private final VirtualClock m_clock;
+
+    /**
+     * The timer being checked.
+     */
+    private final TimerEngine m_timer;
+
+    /**
+     * The timeline of the session.
+     */
+    private final Timeline m_timeline;
+
+    /**
+     * The time the session was started at.
+     */
+    private long m_startTime;
+
+    /**
+     * The total time the session was paused for.
+     */
+    private long m_pausedTotal;
+
+    /**
+     * The time the session was paused at, or -1 if it's not paused.
+     */
+    private long m_pausedAt = -1;
+
+    /**
+     * true if the timer's ticks are enabled, as last set.
+     */
+    private boolean m_ticksEnabled = true;
+
+    /**
+     * The number of boundaries delivered.
+     */
+    private long m_boundaries;
+
+    /**
+     * The sum of the boundary lateness observed.
+     */
+    private long m_observedDrift;
+
+    /**
+     * The number of ticks delivered.
+     */
+    private long m_ticks;
+
+    /**
+     * The segment and seconds value of the last tick, or -1.
+     */
+    private long m_lastTickSegment = -1;
+    private int m_lastTickSeconds = -1;
+
+    /**
+     * true if ticks were turned off at any time since the last tick, so it
+     * may have skipped seconds.
+     */
+    private boolean m_ticksInterrupted;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Run the sessions, and report the results.
+     */
+    public static void main(String[] args)
+    {
+        int sessions = DEFAULT_SESSIONS;
+        long seed = System.nanoTime();
+        if (args.length > 0)
+            sessions = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            seed = Long.parseLong(args[1]);
+
+        long boundaries = 0;
+        long ticks = 0;
+        long virtualMillis = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < sessions; i++)
+        {
+            TimerSimulation session = new TimerSimulation(seed + i);
+            try {
+                virtualMillis += session.run();
+            }
+            catch (IllegalStateException e)
+            {
+                System.err.println("Session " + i + " (seed " + (seed + i) +
+                                   ") failed: " + e.getMessage());
+                System.exit(1);
+            }
+            boundaries += session.m_boundaries;
+            ticks += session.m_ticks;
+        }
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        System.out.println(sessions + " sessions (seed " + seed + "), " +
+                boundaries + " boundaries, " + ticks + " ticks, " +
+                (virtualMillis / MILLIS_IN_SECOND / 3600) +
+                " virtual hours in " + elapsedMillis + "ms (" +
+                (sessions * 1000L / Math.max(elapsedMillis, 1)) +
+                " sessions/s). All checks passed.");
+    }
+
+    /**
+     * Create a random session.
+     */
+    private TimerSimulation(long seed)
+    {
+        m_random = new Random(seed);
+        m_clock = new VirtualClock(m_random.nextInt(Integer.MAX_VALUE),
+                m_random, m_random.nextInt(MAX_JITTER + 1));
+        m_timer = new TimerEngine(this, m_clock, m_clock);
+        m_timeline = createTimeline();
+    }
+
+    /**
+     * Run the session to the end.
+     *
+     * @return The session's length in virtual time, in milliseconds.
+     */
+    private long run()
+    {
+        if (m_random.nextInt(4) == 0)
+            setTicksEnabled(false);
+        m_startTime = m_clock.now();
+        m_timer.start(m_timeline);
+
+        long nextAction = nextActionTime();
+        while (m_timer.isStarted())
+        {
+            if (m_clock.getNextEventTime() <= nextAction)
+            {
+                m_clock.runNext();
+                continue;
+            }
+            m_clock.advanceTo(nextAction);
+            if (m_timer.isStarted())
+                performAction();
+            nextAction = nextActionTime();
+        }
+
+        check(m_boundaries == m_timeline.getSegmentCount(),
+              "delivered " + m_boundaries + " of " +
+              m_timeline.getSegmentCount() + " boundaries");
+        check(m_timer.getAccumulatedDrift() == m_observedDrift,
+              "reported drift " + m_timer.getAccumulatedDrift() +
+              "ms, observed " + m_observedDrift + "ms");
+        check(m_timer.getBoundaryLateness().getCount() == m_boundaries,
+              "recorded " + m_timer.getBoundaryLateness().getCount() +
+              " boundary latencies");
+        check(m_timer.getTickLateness().getMax() <= MAX_JITTER,
+              "recorded a tick " + m_timer.getTickLateness().getMax() +
+              "ms late");
+        check(m_clock.isIdle(), "tasks left scheduled after the session");
+        return m_clock.now() - m_startTime;
+    }
+
+    /**
+     * Create a random timeline: interval settings or a program.
+     */
+    private Timeline createTimeline()
+    {
+        if (m_random.nextBoolean())
+        {
+            return Timeline.forIntervals(m_random.nextInt(11),
+                    1 + m_random.nextInt(90), 1 + m_random.nextInt(30));
+        }
+        return new Program("Random", createSequence(0)).compile();
+    }
+
+    /**
+     * Create a random program sequence, nested to the given depth.
+     */
+    private Program.Sequence createSequence(int depth)
+    {
+        Program.Item[] items = new Program.Item[1 + m_random.nextInt(4)];
+        for (int i = 0; i < items.length; i++)
+        {
+            if (depth < 2 && m_random.nextInt(3) == 0)
+                items[i] = createSequence(depth + 1);
+            else
+            {
+                int cue = (m_random.nextInt(4) == 0 ? Program.CUE_NONE :
+                           Program.CUE_RINGTONE);
+                items[i] = new Program.Segment(1 + m_random.nextInt(60), cue);
+            }
+        }
+        return new Program.Sequence(1 + m_random.nextInt(5), items);
+    }
+
+    /**
+     * Get the time of the next simulated user action.
+     */
+    private long nextActionTime()
+    {
+        return m_clock.now() + 1 + m_random.nextInt(120 * MILLIS_IN_SECOND);
+    }
+
+    /**
+     * Perform a random user action: pause for a while and resume, or turn
+     * the ticks off or on.
+     */
+    private void performAction()
+    {
+        if (m_random.nextBoolean())
+        {
+            setTicksEnabled(!m_ticksEnabled);
+            return;
+        }
+
+        m_pausedAt = m_clock.now();
+        m_timer.pause();
+        check(m_clock.isIdle(), "tasks left scheduled while paused");
+        if (!m_timer.isStarted())
+        {
+            // Pausing delivered the last boundary.
+            m_pausedAt = -1;
+            return;
+        }
+        long remaining = m_timer.getMillisRemaining();
+        check(remaining > 0, "paused with a boundary due");
+        long resumeAt = m_pausedAt + m_random.nextInt(30 * MILLIS_IN_SECOND);
+        if (m_random.nextBoolean())
+            setTicksEnabled(!m_ticksEnabled);
+        m_clock.advanceTo(resumeAt);
+        check(m_timer.getMillisRemaining() == remaining,
+              "time left changed while paused");
+        m_pausedTotal += m_clock.now() - m_pausedAt;
+        m_pausedAt = -1;
+        m_timer.resume();
+        check(m_timer.getMillisRemaining() == remaining ||
+              !m_timer.isStarted(),
+              "resumed with " + m_timer.getMillisRemaining() +
+              "ms left, paused with " + remaining + "ms");
+    }
+
+    /**
+     * Turn the timer's ticks on or off.
+     */
+    private void setTicksEnabled(boolean enabled)
+    {
+        m_ticksEnabled = enabled;
+        if (!enabled)
+            m_ticksInterrupted = true;
+        m_timer.setTicksEnabled(enabled);
+    }
+
+    @Override
+    public void onTimerTick(int secondsTillFinish)
+    {
+        m_ticks++;
+        check(m_ticksEnabled, "tick while ticks are off");
+        long now = (m_pausedAt >= 0 ? m_pausedAt : m_clock.now());
+        long segment = m_timer.getCurrentSegment();
+        long deadline = m_startTime + m_pausedTotal +
+            m_timeline.getSegmentEnd(segment);
+        long millisRemaining = deadline - now;
+        long expected = (millisRemaining + MILLIS_IN_SECOND - 1) /
+            MILLIS_IN_SECOND;
+        check(secondsTillFinish == expected,
+              "tick showed " + secondsTillFinish + "s with " +
+              millisRemaining + "ms left");
+        check(secondsTillFinish > 0, "tick showed 0s before the boundary");
+
+        if (segment == m_lastTickSegment && !m_ticksInterrupted)
+        {
+            check(secondsTillFinish == m_lastTickSeconds ||
+                  secondsTillFinish == m_lastTickSeconds - 1,
+                  "tick went from " + m_lastTickSeconds + "s to " +
+                  secondsTillFinish + "s");
+        }
+        m_lastTickSegment = segment;
+        m_lastTickSeconds = secondsTillFinish;
+        m_ticksInterrupted = false;
+    }
+
+    @Override
+    public void onIntervalFinished()
+    {
+        long deadline = m_timer.getLastBoundaryDeadline();
+        long planned = m_startTime + m_pausedTotal +
+            m_timeline.getSegmentEnd(m_boundaries);
+        check(deadline == planned, "boundary " + m_boundaries + " due at " +
+              deadline + ", planned for " + planned);
+        long lateness = m_clock.now() - deadline;
+        check(lateness >= 0 && lateness <= MAX_JITTER,
+              "boundary " + m_boundaries + " late by " + lateness + "ms");
+        m_observedDrift += lateness;
+        m_boundaries++;
+    }
+
+    /**
+     * Fail the session if the given condition doesn't hold.
+     */
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new IllegalStateException(message);
+    }
+}
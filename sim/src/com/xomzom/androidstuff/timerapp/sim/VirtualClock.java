@@ -0,0 +1,198 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp.sim;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.xomzom.androidstuff.timerapp.TimerEngine;
+
+/**
+ * A virtual clock, and a scheduler running on it. Time only moves when the
+ * scheduled tasks are run, so a whole session takes as long as its tasks
+ * take to run, rather than its real length.
+ * Each task can be made to run late by a random amount (up to a given
+ * jitter), to simulate a busy thread.
+ *
+ * @author dedi
+ */
+public class VirtualClock implements TimerEngine.Clock, TimerEngine.Scheduler
+{
+    //
+    // Types.
+    //
+
+    /**
+     * A scheduled run of a task.
+     */
+    private static class Event implements Comparable<Event>
+    {
+        final long time;
+        final long sequence;
+        final Runnable task;
+
+        Event(long time, long sequence, Runnable task)
+        {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other)
+        {
+            if (time != other.time)
+                return (time < other.time ? -1 : 1);
+            if (sequence != other.sequence)
+                return (sequence < other.sequence ? -1 : 1);
+            return 0;
+        }
+    }
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The scheduled events, earliest first.
+     */
+    private final PriorityQueue<Event> m_events = new PriorityQueue<Event>();
+
+    /**
+     * The random source of the jitter.
+     */
+    private final Random m_random;
+
+    /**
+     * The most a task may run late, in milliseconds.
+     */
+    private final int m_maxJitter;
+
+    /**
+     * The current time.
+     */
+    private long m_now;
+
+    /**
+     * The number of events scheduled so far, to keep the order of events
+     * scheduled for the same time.
+     */
+    private long m_sequence;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a virtual clock, starting at the given time.
+     *
+     * @param random The random source of the jitter.
+     * @param maxJitter The most a task may run late, in milliseconds.
+     */
+    public VirtualClock(long startTime, Random random, int maxJitter)
+    {
+        m_now = startTime;
+        m_random = random;
+        m_maxJitter = maxJitter;
+    }
+
+    @Override
+    public long now()
+    {
+        return m_now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay)
+    {
+        long time = m_now + Math.max(delay, 0);
+        if (m_maxJitter > 0)
+            time += m_random.nextInt(m_maxJitter + 1);
+        m_events.add(new Event(time, m_sequence++, task));
+    }
+
+    @Override
+    public void cancel(Runnable task)
+    {
+        // Sessions only ever have a task or two scheduled.
+        Iterator<Event> events = m_events.iterator();
+        while (events.hasNext())
+        {
+            if (events.next().task == task)
+                events.remove();
+        }
+    }
+
+    /**
+     * Check if there are any scheduled tasks.
+     */
+    public boolean isIdle()
+    {
+        return m_events.isEmpty();
+    }
+
+    /**
+     * Get the time of the next scheduled task, or Long.MAX_VALUE if there
+     * is none.
+     */
+    public long getNextEventTime()
+    {
+        Event next = m_events.peek();
+        return (next == null ? Long.MAX_VALUE : next.time);
+    }
+
+    /**
+     * Move the time forward to the given time, running all the tasks
+     * scheduled until then, in order.
+     */
+    public void advanceTo(long time)
+    {
+        while (!m_events.isEmpty() && m_events.peek().time <= time)
+            runNext();
+        m_now = Math.max(m_now, time);
+    }
+
+    /**
+     * Run the next scheduled task, moving the time forward to its time.
+     *
+     * @return false if there was no task to run.
+     */
+    public boolean runNext()
+    {
+        Event event = m_events.poll();
+        if (event == null)
+            return false;
+        m_now = Math.max(m_now, event.time);
+        event.task.run();
+        return true;
+    }
+}
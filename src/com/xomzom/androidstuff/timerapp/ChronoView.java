@@ -0,0 +1,273 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * The chronometer view, drawn without going through TextView. The glyphs for
+ * the current text size are rendered once into an atlas bitmap, and each
+ * digit is then drawn by copying its cell from the atlas. When the displayed
+ * value changes, only the rectangles of the digits that changed are
+ * invalidated.
+ * The text is maximized depending on the view size (see TextSizeFitter).
+ *
+ * @author dedi
+ */
+public class ChronoView extends View
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The glyphs in the atlas, in cell order.
+     */
+    private final static String GLYPHS = "0123456789-.";
+
+    /**
+     * The text color used if none is set in the layout.
+     */
+    private final static int DEFAULT_TEXT_COLOR = Color.WHITE;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The chars currently displayed.
+     */
+    private char[] m_digits = new char[DigitFormatter.MAX_CHARS];
+
+    /**
+     * The number of valid chars in m_digits.
+     */
+    private int m_digitCount;
+
+    /**
+     * Finds (and caches) the text size that fills the view.
+     */
+    private final TextSizeFitter m_fitter = new TextSizeFitter();
+
+    /**
+     * The paint used for drawing the atlas cells. Its color is the text
+     * color, since the atlas is an alpha-only bitmap.
+     */
+    private final Paint m_paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * The glyph atlas: one cell per char in GLYPHS, side by side. null until
+     * the view has a size.
+     */
+    private Bitmap m_atlas;
+
+    /**
+     * The text size the atlas was rendered for.
+     */
+    private float m_atlasTextSize;
+
+    /**
+     * The size of a single atlas cell (and of a single digit on screen).
+     */
+    private int m_cellWidth;
+    private int m_cellHeight;
+
+    /**
+     * The position of the first digit on screen.
+     */
+    private int m_textLeft;
+    private int m_textTop;
+
+    /**
+     * Scratch rectangles for drawing, so that onDraw doesn't allocate.
+     */
+    private final Rect m_srcRect = new Rect();
+    private final Rect m_dstRect = new Rect();
+
+
+    //
+    // Operations.
+    //
+
+    public ChronoView(Context context)
+    {
+        super(context);
+        m_paint.setColor(DEFAULT_TEXT_COLOR);
+    }
+
+    public ChronoView(Context context, AttributeSet attrs)
+    {
+        super(context, attrs);
+        TypedArray styled = context.obtainStyledAttributes(attrs,
+                new int[] { android.R.attr.textColor });
+        m_paint.setColor(styled.getColor(0, DEFAULT_TEXT_COLOR));
+        styled.recycle();
+    }
+
+    /**
+     * Display the given chars. Does nothing if they are the same as the
+     * ones already displayed. Otherwise only the digits that changed are
+     * redrawn, unless the number of digits changed.
+     *
+     * @param digits The buffer holding the chars to display.
+     * @param start The index of the first char to display.
+     * @param count The number of chars to display.
+     */
+    public void setDigits(char[] digits, int start, int count)
+    {
+        if (count > m_digits.length)
+            m_digits = new char[count];
+
+        if (count != m_digitCount)
+        {
+            System.arraycopy(digits, start, m_digits, 0, count);
+            m_digitCount = count;
+            layoutDigits();
+            invalidate();
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            char digit = digits[start + i];
+            if (m_digits[i] != digit)
+            {
+                m_digits[i] = digit;
+                int left = m_textLeft + i * m_cellWidth;
+                invalidate(left, m_textTop, left + m_cellWidth,
+                           m_textTop + m_cellHeight);
+            }
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutDigits();
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        if (m_atlas != null)
+        {
+            m_atlas.recycle();
+            m_atlas = null;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+        if (m_atlas == null)
+            layoutDigits();
+        if (m_atlas == null)
+            return;
+
+        for (int i = 0; i < m_digitCount; i++)
+        {
+            int cell = GLYPHS.indexOf(m_digits[i]);
+            if (cell < 0)
+                continue;
+            int left = m_textLeft + i * m_cellWidth;
+            m_dstRect.set(left, m_textTop, left + m_cellWidth,
+                          m_textTop + m_cellHeight);
+            m_srcRect.set(cell * m_cellWidth, 0, (cell + 1) * m_cellWidth,
+                          m_cellHeight);
+            canvas.drawBitmap(m_atlas, m_srcRect, m_dstRect, m_paint);
+        }
+    }
+
+    /**
+     * Fit the text size to the view and the number of digits, re-render the
+     * atlas if the size changed, and position the digits in the middle of
+     * the view.
+     */
+    private void layoutDigits()
+    {
+        int textChars = Math.max(m_digitCount, 2);
+        int displayWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        int displayHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (displayWidth <= 0 || displayHeight <= 0)
+            return;
+
+        float textSize = m_fitter.getFittingSize(displayWidth, displayHeight,
+                textChars, null);
+        if (m_atlas == null || textSize != m_atlasTextSize)
+            renderAtlas(textSize);
+
+        m_textLeft = getPaddingLeft() +
+            (displayWidth - m_digitCount * m_cellWidth) / 2;
+        m_textTop = getPaddingTop() + (displayHeight - m_cellHeight) / 2;
+    }
+
+    /**
+     * Render all the glyphs at the given text size into a new atlas.
+     */
+    private void renderAtlas(float textSize)
+    {
+        if (m_atlas != null)
+            m_atlas.recycle();
+
+        Paint glyphPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        glyphPaint.setTextSize(textSize);
+        glyphPaint.setColor(Color.WHITE);
+        float widest = 0;
+        for (int i = 0; i < GLYPHS.length(); i++)
+            widest = Math.max(widest, glyphPaint.measureText(GLYPHS, i, i + 1));
+        m_cellWidth = (int)Math.ceil(widest);
+        m_cellHeight =
+            (int)Math.ceil(glyphPaint.descent() - glyphPaint.ascent());
+
+        m_atlas = Bitmap.createBitmap(m_cellWidth * GLYPHS.length(),
+                m_cellHeight, Bitmap.Config.ALPHA_8);
+        Canvas atlasCanvas = new Canvas(m_atlas);
+        float baseline = -glyphPaint.ascent();
+        for (int i = 0; i < GLYPHS.length(); i++)
+        {
+            // Center each glyph in its cell.
+            float glyphWidth = glyphPaint.measureText(GLYPHS, i, i + 1);
+            float x = i * m_cellWidth + (m_cellWidth - glyphWidth) / 2;
+            atlasCanvas.drawText(GLYPHS, i, i + 1, x, baseline, glyphPaint);
+        }
+        m_atlasTextSize = textSize;
+    }
+}
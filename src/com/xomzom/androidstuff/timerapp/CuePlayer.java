@@ -0,0 +1,261 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioManager;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.media.SoundPool;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Plays the boundary cue with low latency. The chosen sound is loaded into a
+ * SoundPool once, which decodes it to PCM and keeps it resident, so playing
+ * it doesn't prepare a media player every time like Ringtone.play() does.
+ * If the sound can't be loaded that way (or isn't loaded yet), the cue falls
+ * back to a Ringtone.
+ * The latency of each cue is recorded in a histogram: the time from the
+ * boundary deadline until the sound was handed to the audio system (until
+ * SoundPool.play() or Ringtone.play() returned). That is the dispatch latency
+ * we control; the device's audio output latency, until the sound is actually
+ * heard, comes on top of it and is not measured.
+ *
+ * @author dedi
+ */
+public class CuePlayer implements SoundPool.OnLoadCompleteListener
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The context used to load sounds.
+     */
+    private final Context m_context;
+
+    /**
+     * The tracer the cues are recorded to.
+     */
+    private final Tracer m_tracer;
+
+    /**
+     * The sound pool holding the decoded cue.
+     */
+    private final SoundPool m_soundPool;
+
+    /**
+     * The sound pool ID of the cue, or 0 if none is loaded.
+     */
+    private int m_soundId;
+
+    /**
+     * true when the cue finished loading into the sound pool.
+     */
+    private boolean m_soundLoaded;
+
+    /**
+     * The fallback ringtone, used when the sound pool can't play the cue.
+     */
+    private Ringtone m_ringtone;
+
+    /**
+     * The ringtone URI the fallback was loaded for.
+     */
+    private Uri m_ringtoneUri;
+
+    /**
+     * The dispatch latency of the cues, in milliseconds.
+     */
+    private final LatencyHistogram m_latency = new LatencyHistogram();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a cue player, recording its cues to the given tracer. Call
+     * load() to choose the sound.
+     */
+    public CuePlayer(Context context, Tracer tracer)
+    {
+        m_context = context.getApplicationContext();
+        m_tracer = tracer;
+        m_soundPool = new SoundPool(1, AudioManager.STREAM_NOTIFICATION, 0);
+        m_soundPool.setOnLoadCompleteListener(this);
+    }
+
+    /**
+     * Load the sound at the given URI as the cue. Loading is asynchronous;
+     * until it's done, the cue is played as a ringtone.
+     */
+    public void load(Uri uri)
+    {
+        unloadSound();
+        m_ringtone = null;
+        m_ringtoneUri = uri;
+
+        AssetFileDescriptor soundFile = null;
+        try {
+            soundFile = m_context.getContentResolver().openAssetFileDescriptor(
+                    uri, "r");
+            if (soundFile != null)
+                m_soundId = m_soundPool.load(soundFile, 1);
+        }
+        catch (IOException e)
+        {
+            Log.w(this.getClass().toString(),
+                  "Couldn't open cue sound, will use a ringtone", e);
+        }
+        catch (RuntimeException e)
+        {
+            // Unparsable URIs and such.
+            Log.w(this.getClass().toString(),
+                  "Couldn't open cue sound, will use a ringtone", e);
+        }
+        finally
+        {
+            closeQuietly(soundFile);
+        }
+        // Have the fallback ready before it's needed.
+        if (m_soundId == 0)
+            getRingtone();
+    }
+
+    /**
+     * The sound pool finished loading a sound.
+     */
+    @Override
+    public void onLoadComplete(SoundPool soundPool, int sampleId, int status)
+    {
+        if (sampleId != m_soundId)
+            return;
+        m_soundLoaded = (status == 0);
+        if (!m_soundLoaded)
+        {
+            Log.w(this.getClass().toString(),
+                  "Couldn't decode cue sound, will use a ringtone");
+            getRingtone();
+        }
+    }
+
+    /**
+     * Play the cue for a boundary.
+     *
+     * @param deadline The time (SystemClock.elapsedRealtime()) the boundary
+     * was due, for measuring latency.
+     */
+    public void play(long deadline)
+    {
+        m_tracer.record(Tracer.EVENT_CUE_REQUESTED,
+                        deadline - SystemClock.elapsedRealtime(), 0);
+        if (m_soundLoaded)
+            m_soundPool.play(m_soundId, 1, 1, 1, 0, 1);
+        else
+            getRingtone().play();
+
+        long latency = SystemClock.elapsedRealtime() - deadline;
+        m_tracer.record(Tracer.EVENT_CUE_STARTED, latency, 0);
+        m_latency.record(latency);
+    }
+
+    /**
+     * Get the histogram of the cues' dispatch latency: from the boundary
+     * deadline until the sound was handed to the audio system, in
+     * milliseconds. Recorded and read on the service's thread.
+     */
+    public LatencyHistogram getLatency()
+    {
+        return m_latency;
+    }
+
+    /**
+     * Release the sound pool. The player can't be used after this.
+     */
+    public void release()
+    {
+        m_soundPool.release();
+        m_soundId = 0;
+        m_soundLoaded = false;
+    }
+
+    /**
+     * Get the fallback ringtone, loading it on first use.
+     */
+    private Ringtone getRingtone()
+    {
+        if (m_ringtone != null)
+            return m_ringtone;
+
+        m_ringtone = RingtoneManager.getRingtone(m_context, m_ringtoneUri);
+        if (m_ringtone == null)
+        {
+            Log.e(this.getClass().toString(),
+                  "Couldn't load ringtone. Loading something.");
+            Uri validUri = RingtoneManager.getValidRingtoneUri(m_context);
+            m_ringtone = RingtoneManager.getRingtone(m_context, validUri);
+        }
+        m_ringtone.setStreamType(AudioManager.STREAM_NOTIFICATION);
+        return m_ringtone;
+    }
+
+    /**
+     * Unload the current sound from the sound pool.
+     */
+    private void unloadSound()
+    {
+        if (m_soundId != 0)
+            m_soundPool.unload(m_soundId);
+        m_soundId = 0;
+        m_soundLoaded = false;
+    }
+
+    /**
+     * Close a file descriptor, ignoring errors. The sound pool keeps its own
+     * copy of the descriptor.
+     */
+    private static void closeQuietly(AssetFileDescriptor file)
+    {
+        if (file == null)
+            return;
+        try {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing to do.
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * A hidden screen showing the timer's timing statistics: how late the tick
+ * loop runs, how late the segment boundaries are delivered, and how late the
+ * cues are handed to the audio system, as histograms. The report can be
+ * exported to a file (in the application's external files directory), to
+ * compare devices or catch regressions.
+ * The event tracer is turned on and off here too, and its trace exported
+ * (as Chrome trace event JSON, for Perfetto or chrome://tracing).
+ * It's opened by a long press on the time.
+ *
+ * @author dedi
+ */
+public class DebugActivity extends Activity implements ServiceConnection
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The timer service, or null while it's not connected.
+     */
+    private TimerService m_service;
+
+    /**
+     * The report view.
+     */
+    private TextView m_reportView;
+
+    /**
+     * The trace on/off button.
+     */
+    private Button m_traceButton;
+
+
+    //
+    // Operations.
+    //
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState)
+    {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.debug_activity);
+        m_reportView = (TextView)findViewById(R.id.debug_report);
+        m_traceButton = (Button)findViewById(R.id.debug_trace_button);
+
+        OnClickListener buttonListener = new OnClickListener() {
+            @Override
+            public void onClick(View view)
+            {
+                onButtonClick(view.getId());
+            }
+        };
+        findViewById(R.id.debug_refresh_button).setOnClickListener(
+                buttonListener);
+        findViewById(R.id.debug_reset_button).setOnClickListener(
+                buttonListener);
+        findViewById(R.id.debug_export_button).setOnClickListener(
+                buttonListener);
+        m_traceButton.setOnClickListener(buttonListener);
+        findViewById(R.id.debug_export_trace_button).setOnClickListener(
+                buttonListener);
+    }
+
+    @Override
+    protected void onStart()
+    {
+        super.onStart();
+        bindService(new Intent(this, TimerService.class), this,
+                Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop()
+    {
+        super.onStop();
+        unbindService(this);
+        m_service = null;
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder binder)
+    {
+        m_service = ((TimerService.LocalBinder)binder).getService();
+        showReport();
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name)
+    {
+        m_service = null;
+    }
+
+    /**
+     * One of the buttons was clicked.
+     */
+    private void onButtonClick(int id)
+    {
+        if (m_service == null)
+            return;
+        switch (id) {
+        case R.id.debug_reset_button:
+            m_service.getTimer().getTickLateness().reset();
+            m_service.getTimer().getBoundaryLateness().reset();
+            m_service.getCuePlayer().getLatency().reset();
+            m_service.getScheduledCuePlayer().resetLateness();
+            break;
+        case R.id.debug_export_button:
+            export("timing-", ".txt", false);
+            break;
+        case R.id.debug_trace_button:
+            Tracer tracer = m_service.getTracer();
+            tracer.setEnabled(!tracer.isEnabled());
+            break;
+        case R.id.debug_export_trace_button:
+            export("trace-", ".json", true);
+            break;
+        }
+        showReport();
+    }
+
+    /**
+     * Show the current report.
+     */
+    private void showReport()
+    {
+        m_reportView.setText(formatReport());
+        m_traceButton.setText(m_service.getTracer().isEnabled() ?
+                              R.string.debug_trace_stop :
+                              R.string.debug_trace_start);
+    }
+
+    /**
+     * Write the current report or the trace to a new, timestamped file, and
+     * tell the user where it is. The report is taken right away, and the
+     * file is written on a background thread (along with the trace, which
+     * is formatted there too).
+     * The file goes to the external files directory, so it can be pulled off
+     * the device; if there's no external storage, or it can't be written
+     * (e.g. it's full, or the storage permission was not granted), it goes
+     * to the internal files directory instead.
+     */
+    private void export(String prefix, String suffix, boolean trace)
+    {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US)
+            .format(new Date());
+        final String name = prefix + timestamp + suffix;
+        final File externalDir = getExternalFilesDir(null);
+        final File internalDir = getFilesDir();
+        final Tracer tracer = (trace ? m_service.getTracer() : null);
+        final String report = (trace ? null : formatReport());
+
+        new AsyncTask<Void, Void, File>() {
+            @Override
+            protected File doInBackground(Void... params)
+            {
+                if (externalDir != null)
+                {
+                    File file = new File(externalDir, name);
+                    if (writeFile(file, report, tracer))
+                        return file;
+                    file.delete();
+                }
+                File file = new File(internalDir, name);
+                return (writeFile(file, report, tracer) ? file : null);
+            }
+
+            @Override
+            protected void onPostExecute(File file)
+            {
+                String message = (file != null ?
+                        getString(R.string.debug_exported, file.getPath()) :
+                        getString(R.string.debug_export_failed));
+                Toast.makeText(DebugActivity.this, message,
+                               Toast.LENGTH_LONG).show();
+            }
+        }.execute();
+    }
+
+    /**
+     * Write the given report, or the given tracer's trace, to the given file.
+     * Called on a background thread.
+     *
+     * @param report The report text, or null to write the trace.
+     * @param tracer The tracer to write, if report is null.
+     * @return true if the file was written.
+     */
+    private static boolean writeFile(File file, String report, Tracer tracer)
+    {
+        boolean failed;
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new FileWriter(file));
+            if (report != null)
+                out.print(report);
+            else
+                tracer.writeJson(out);
+            failed = out.checkError();
+        }
+        catch (IOException e)
+        {
+            Log.e(DebugActivity.class.toString(), "Couldn't export " + file,
+                  e);
+            failed = true;
+        }
+        finally
+        {
+            if (out != null)
+                out.close();
+        }
+        return !failed;
+    }
+
+    /**
+     * Get the current report, as text.
+     */
+    private String formatReport()
+    {
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        writeReport(out);
+        out.flush();
+        return report.toString();
+    }
+
+    /**
+     * Write the report: the device, the timing related settings, the
+     * current session, and the lateness and latency histograms.
+     */
+    private void writeReport(PrintWriter out)
+    {
+        out.println(getString(R.string.app_name) + " " + getVersionName());
+        out.println(Build.MANUFACTURER + " " + Build.MODEL + ", Android " +
+                    Build.VERSION.RELEASE + " (API " + Build.VERSION.SDK_INT +
+                    ")");
+        TimerSettings settings = m_service.getSettings();
+        if (settings != null)
+        {
+            out.println("Precise cues: " + settings.getPreciseCues() +
+                        ", low power: " + settings.getLowPower() +
+                        ", decimals: " + settings.getDisplayDecimals());
+        }
+        TimerEngine timer = m_service.getTimer();
+        out.println("Session: " + m_service.getState() + ", drift " +
+                    timer.getAccumulatedDrift() + "ms, wakeups " +
+                    m_service.getWakeupCount());
+        out.println();
+        out.print("Tick lateness: ");
+        timer.getTickLateness().write(out);
+        out.println();
+        out.print("Boundary lateness: ");
+        timer.getBoundaryLateness().write(out);
+        out.println();
+        // Measured until the sound is handed to the audio system; the
+        // device's output latency comes on top.
+        out.print("Cue dispatch latency: ");
+        m_service.getCuePlayer().getLatency().write(out);
+        out.println();
+        out.print("Precise cue lateness: ");
+        m_service.getScheduledCuePlayer().writeLateness(out);
+        out.println();
+        Tracer tracer = m_service.getTracer();
+        out.println("Trace: " + (tracer.isEnabled() ? "on" : "off") + ", " +
+                    tracer.getEventCount() + " events");
+    }
+
+    /**
+     * Get the application's version name, or "?" if it can't be found.
+     */
+    private String getVersionName()
+    {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0)
+                .versionName;
+        }
+        catch (PackageManager.NameNotFoundException e)
+        {
+            return "?";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+
+/**
+ * Formats numbers into a caller supplied char buffer, without allocating
+ * anything. Meant for the tick path, which runs many times a second for the
+ * whole session.
+ *
+ * @author dedi
+ */
+public final class DigitFormatter
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The buffer size needed to format any long value.
+     */
+    public final static int MAX_CHARS = 20;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * No instances - this is a utility class.
+     */
+    private DigitFormatter()
+    {
+    }
+
+    /**
+     * Format the given value as decimal digits, right aligned to the end of
+     * the given buffer.
+     *
+     * @param value The value to format.
+     * @param buffer The buffer to write to. Should be at least MAX_CHARS long
+     * if the value might be large.
+     * @return The index in the buffer of the first formatted char. The
+     * formatted value runs from there to the end of the buffer.
+     */
+    public static int format(long value, char[] buffer)
+    {
+        int pos = buffer.length;
+        boolean negative = value < 0;
+        // Work with negative numbers, so that Long.MIN_VALUE works too.
+        if (!negative)
+            value = -value;
+        do
+        {
+            buffer[--pos] = (char)('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative)
+            buffer[--pos] = '-';
+        return pos;
+    }
+
+    /**
+     * Format the given value as a decimal fraction with the given number of
+     * decimal places (e.g. 1234 with 2 places is "12.34", and 5 is "0.05"),
+     * right aligned to the end of the given buffer.
+     *
+     * @param value The value to format, in units of the last decimal place.
+     * Must not be negative.
+     * @param decimals The number of decimal places. 0 formats a plain number.
+     * @param buffer The buffer to write to. Should be at least MAX_CHARS long
+     * if the value might be large.
+     * @return The index in the buffer of the first formatted char. The
+     * formatted value runs from there to the end of the buffer.
+     */
+    public static int formatFixed(long value, int decimals, char[] buffer)
+    {
+        if (decimals == 0)
+            return format(value, buffer);
+        int pos = buffer.length;
+        for (int i = 0; i < decimals; i++)
+        {
+            buffer[--pos] = (char)('0' + (value % 10));
+            value /= 10;
+        }
+        buffer[--pos] = '.';
+        do
+        {
+            buffer[--pos] = (char)('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        return pos;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Calls a listener once per display frame while started, for displays that
+ * change faster than once a second. On Jelly Bean and up the frames come
+ * from the Choreographer, in step with the display's vsync; before that, a
+ * handler loop runs at about the display rate. Each frame carries its time,
+ * so the value displayed is computed for the frame itself, and a late frame
+ * never leaves a backlog of ticks behind.
+ * Must be used from the UI thread.
+ *
+ * @author dedi
+ */
+public abstract class FrameTicker
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The frame interval of the handler loop, in milliseconds.
+     */
+    private final static int FALLBACK_FRAME_MILLIS = 16;
+
+
+    //
+    // Types.
+    //
+
+    /**
+     * A listener to the frames.
+     */
+    public interface Listener
+    {
+        /**
+         * A frame is being drawn.
+         *
+         * @param frameTime The time (SystemClock.elapsedRealtime()) of the
+         * frame.
+         */
+        void onFrame(long frameTime);
+    }
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The frame listener.
+     */
+    protected final Listener m_listener;
+
+    /**
+     * true while the frames are delivered.
+     */
+    protected boolean m_started;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create the frame ticker for this device, delivering to the given
+     * listener. The frames are not delivered until start() is called.
+     */
+    public static FrameTicker create(Listener listener)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            return new ChoreographerTicker(listener);
+        return new HandlerTicker(listener);
+    }
+
+    /**
+     * Create a frame ticker delivering to the given listener.
+     */
+    protected FrameTicker(Listener listener)
+    {
+        m_listener = listener;
+    }
+
+    /**
+     * Start delivering frames, if not started already.
+     */
+    public void start()
+    {
+        if (m_started)
+            return;
+        m_started = true;
+        requestFrame();
+    }
+
+    /**
+     * Stop delivering frames.
+     */
+    public void stop()
+    {
+        if (!m_started)
+            return;
+        m_started = false;
+        cancelFrame();
+    }
+
+    /**
+     * Check if frames are being delivered.
+     */
+    public boolean isStarted()
+    {
+        return m_started;
+    }
+
+    /**
+     * Have the next frame delivered.
+     */
+    protected abstract void requestFrame();
+
+    /**
+     * Cancel the frame requested.
+     */
+    protected abstract void cancelFrame();
+
+    /**
+     * Deliver a frame, and request the next one.
+     */
+    protected void deliverFrame(long frameTime)
+    {
+        if (!m_started)
+            return;
+        requestFrame();
+        m_listener.onFrame(frameTime);
+    }
+
+    /**
+     * Frames from the Choreographer, in step with vsync.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerTicker extends FrameTicker
+        implements Choreographer.FrameCallback
+    {
+        /**
+         * The choreographer of the UI thread.
+         */
+        private final Choreographer m_choreographer =
+            Choreographer.getInstance();
+
+        ChoreographerTicker(Listener listener)
+        {
+            super(listener);
+        }
+
+        @Override
+        protected void requestFrame()
+        {
+            m_choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        protected void cancelFrame()
+        {
+            m_choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            // The frame time is on the System.nanoTime() clock; move it to
+            // ours.
+            long frameAge = (System.nanoTime() - frameTimeNanos) / 1000000;
+            deliverFrame(SystemClock.elapsedRealtime() - frameAge);
+        }
+    }
+
+    /**
+     * Frames from a handler loop, for devices without a Choreographer.
+     */
+    private static class HandlerTicker extends FrameTicker
+        implements Runnable
+    {
+        /**
+         * The handler the loop runs on.
+         */
+        private final Handler m_handler = new Handler();
+
+        HandlerTicker(Listener listener)
+        {
+            super(listener);
+        }
+
+        @Override
+        protected void requestFrame()
+        {
+            m_handler.postDelayed(this, FALLBACK_FRAME_MILLIS);
+        }
+
+        @Override
+        protected void cancelFrame()
+        {
+            m_handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run()
+        {
+            deliverFrame(SystemClock.elapsedRealtime());
+        }
+    }
+}
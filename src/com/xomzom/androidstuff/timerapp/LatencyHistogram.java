@@ -0,0 +1,240 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.PrintWriter;
+
+/**
+ * A histogram of latencies (in milliseconds), in a fixed amount of memory.
+ * Values below 16 have a bucket each; above that, every power of 2 range is
+ * split into 8 buckets, so a bucket is never wider than 1/8 of its values.
+ * Values above MAX_TRACKED_VALUE all go to the last bucket, but the maximum
+ * is always exact. Recording never allocates.
+ * Not thread safe: it's recorded and read on the timer's thread.
+ *
+ * @author dedi
+ */
+public final class LatencyHistogram
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of bits of each value that select its bucket within its
+     * power of 2 range.
+     */
+    private final static int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets per power of 2 range.
+     */
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of bits of the largest tracked value.
+     */
+    private final static int MAX_VALUE_BITS = 24;
+
+    /**
+     * The largest value with a bucket of its own range (about 4.6 hours).
+     */
+    public final static long MAX_TRACKED_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /**
+     * The number of buckets.
+     */
+    private final static int BUCKET_COUNT =
+        (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The number of values in each bucket.
+     */
+    private final long[] m_counts = new long[BUCKET_COUNT];
+
+    /**
+     * The number of values recorded.
+     */
+    private long m_count;
+
+    /**
+     * The sum of the values recorded.
+     */
+    private long m_sum;
+
+    /**
+     * The largest value recorded.
+     */
+    private long m_max;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+        m_counts[getBucket(Math.min(value, MAX_TRACKED_VALUE))]++;
+        m_count++;
+        m_sum += value;
+        if (value > m_max)
+            m_max = value;
+    }
+
+    /**
+     * Forget all the recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            m_counts[i] = 0;
+        m_count = 0;
+        m_sum = 0;
+        m_max = 0;
+    }
+
+    /**
+     * Get the number of values recorded.
+     */
+    public long getCount()
+    {
+        return m_count;
+    }
+
+    /**
+     * Get the largest value recorded, or 0 if none was.
+     */
+    public long getMax()
+    {
+        return m_max;
+    }
+
+    /**
+     * Get the mean of the recorded values, or 0 if none was recorded.
+     */
+    public double getMean()
+    {
+        return (m_count == 0 ? 0 : (double)m_sum / m_count);
+    }
+
+    /**
+     * Get the value the given fraction of the recorded values are at or
+     * below (e.g. 0.99 for the 99th percentile). This is the top of the
+     * bucket the value is in, so it may be a bit above the real value, but
+     * never above the maximum.
+     *
+     * @return The value, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double fraction)
+    {
+        if (m_count == 0)
+            return 0;
+        long rank = Math.max((long)Math.ceil(fraction * m_count), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += m_counts[i];
+            if (seen >= rank)
+                return Math.min(getBucketTop(i), m_max);
+        }
+        return m_max;
+    }
+
+    /**
+     * Write a summary line, followed by a line for each non-empty bucket,
+     * with its range and count.
+     */
+    public void write(PrintWriter out)
+    {
+        out.println(formatSummary());
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            if (m_counts[i] == 0)
+                continue;
+            out.println("  " + getBucketBottom(i) + "-" + getBucketTop(i) +
+                        "ms: " + m_counts[i]);
+        }
+    }
+
+    /**
+     * Get a one line summary: the count, mean, p50, p99 and max.
+     */
+    public String formatSummary()
+    {
+        return "n=" + m_count +
+            " mean=" + Math.round(getMean()) + "ms" +
+            " p50=" + getPercentile(0.5) + "ms" +
+            " p99=" + getPercentile(0.99) + "ms" +
+            " max=" + m_max + "ms";
+    }
+
+    /**
+     * Get the bucket of the given (tracked) value.
+     */
+    private static int getBucket(long value)
+    {
+        if (value < 2 * SUB_BUCKETS)
+            return (int)value;
+        // The number of bits below the ones that select the sub bucket.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >> shift);
+    }
+
+    /**
+     * Get the smallest value in the given bucket.
+     */
+    private static long getBucketBottom(int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Get the largest value in the given bucket.
+     */
+    private static long getBucketTop(int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long)(bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+    }
+}
@@ -28,56 +28,33 @@
 
 package com.xomzom.androidstuff.timerapp;
 
-import android.os.CountDownTimer;
-import android.util.Log;
+import android.os.Handler;
+import android.os.SystemClock;
 
 /**
- * A pause-able countdown timer, which can count seconds. the timer is accurate
- * to a single second, so if paused and resumed, will round down to the last
- * second ticked. E.g, if a timer 3 second timer is paused after 1.5 seconds,
- * it will still tick 2 seconds when resumed.
- * Clock resolution is defined by TICKS_PER_SECOND, and the timer will send
- * roughly that number of ticks per second, all with the same seconds value.
+ * A pause-able countdown timer, which counts down the segments of a Timeline
+ * (e.g. a countdown followed by a number of intervals). This is the Android
+ * adapter of TimerEngine, which has all the timing logic: the time is
+ * SystemClock.elapsedRealtime(), and the tick loop runs on a Handler.
  *
  * @author dedi
  */
-public class PausableTimer
+public class PausableTimer extends TimerEngine
 {
     //
     // Constants.
     //
 
     /**
-     * Milliseconds in a second.
+     * The monotonic clock, including deep sleep.
      */
-    private final static int MILLIS_IN_SECOND = 1000;
-
-    /**
-     * Number of ticks per second. Higher value means more acuracy,
-     * but higher CPU usage.
-     */
-    private final static int TICKS_PER_SECOND = 20;
-
-
-    //
-    // Members
-    //
-
-    /**
-     * Our listener object.
-     */
-    private PausableTimerListener m_listener;
-
-    /**
-     * The actual countdown timer object. Will be null if the timer is currently
-     * not running.
-     */
-    private CountDownTimer m_countdownTimer;
-
-    /**
-     * Seconds remaining for this timer.
-     */
-    private int m_secondsRemaining;
+    private final static Clock ELAPSED_REALTIME_CLOCK = new Clock() {
+        @Override
+        public long now()
+        {
+            return SystemClock.elapsedRealtime();
+        }
+    };
 
 
     //
@@ -85,101 +62,41 @@ public class PausableTimer
     //
 
     /**
-     * Create a new pausable timer, associated with the given listener.
+     * Create a new pausable timer, associated with the given listener. Must be
+     * called from a thread with a looper (usually the UI thread); all the
+     * listener events will be delivered on that thread.
      */
     public PausableTimer(PausableTimerListener listener)
     {
-        m_listener = listener;
+        super(listener, ELAPSED_REALTIME_CLOCK,
+              new HandlerScheduler(new Handler()));
     }
 
     /**
-     * Start a timer that will tick for the given number of seconds. This will
-     * cancel any currently running or paused timer.
+     * Runs the tick loop on a Handler.
      */
-    public void start(int seconds)
+    private static class HandlerScheduler implements Scheduler
     {
-        if (m_countdownTimer != null)
+        /**
+         * The handler the tasks are posted to.
+         */
+        private final Handler m_handler;
+
+        HandlerScheduler(Handler handler)
         {
-            Log.d(this.getClass().toString(),
-                    "Warning: Timer started while running");
-            m_countdownTimer.cancel();
-            m_countdownTimer = null;
+            m_handler = handler;
         }
-        m_secondsRemaining = seconds;
-        long countdownInterval = MILLIS_IN_SECOND / TICKS_PER_SECOND;
-        m_countdownTimer =
-            new CountDownTimer(seconds * MILLIS_IN_SECOND, countdownInterval) {
-
-            @Override
-            public void onTick(long millisUntilFinished)
-            {
-                PausableTimer.this.onTick(millisUntilFinished);
-            }
-
-            @Override
-            public void onFinish()
-            {
-                PausableTimer.this.onFinish();
-            }
-        };
-        m_countdownTimer.start();
-    }
-
-    /**
-     * Pause the timer.
-     */
-    public void pause()
-    {
-        if (m_countdownTimer == null)
-            return;
-        m_countdownTimer.cancel();
-        m_countdownTimer = null;
-    }
-
-    /**
-     * Resume the timer.
-     */
-    public void resume()
-    {
-        if (m_secondsRemaining != 0)
-            start(m_secondsRemaining);
-        else
-            onFinish();
-    }
-
-    /**
-     * Cancel a running timer.
-     */
-    public void stop()
-    {
-        pause();
-        m_secondsRemaining = 0;
-    }
 
-    /**
-     * A timer tick event.
-     *
-     * @param secondsRemaining
-     */
-    protected void onTick(long millisUntilFinished)
-    {
-        Log.d(this.getClass().toString(), "onTick: " +  millisUntilFinished);
-        // Round down if we're less than half a tick above the second,
-        // round up otherwise.
-        int halfInterval = (MILLIS_IN_SECOND / TICKS_PER_SECOND) / 2;
-        m_secondsRemaining = (((int)millisUntilFinished + MILLIS_IN_SECOND -
-                               halfInterval) / MILLIS_IN_SECOND);
-        m_listener.onTimerTick(m_secondsRemaining);
-    }
+        @Override
+        public void schedule(Runnable task, long delay)
+        {
+            m_handler.postDelayed(task, delay);
+        }
 
-    /**
-     * A 'timer expired' event.
-     */
-    protected void onFinish()
-    {
-        Log.d(this.getClass().toString(), "onFinish()");
-        m_secondsRemaining = 0;
-        m_countdownTimer = null;
-        m_listener.onIntervalFinished();
+        @Override
+        public void cancel(Runnable task)
+        {
+            m_handler.removeCallbacks(task);
+        }
     }
 }
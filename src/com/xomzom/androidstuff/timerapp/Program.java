@@ -0,0 +1,328 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A named workout program (preset): a sequence of segments and nested,
+ * repeating sequences, each segment with its own length and cue.
+ * A program is compiled into a Timeline, which is the same flat schedule the
+ * timer runs for the simple interval settings, so a complex program costs no
+ * more per tick than a single loop of intervals.
+ * Programs are immutable.
+ *
+ * @author dedi
+ */
+public final class Program
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Cue: nothing is played at the end of the segment.
+     */
+    public final static int CUE_NONE = 0;
+
+    /**
+     * Cue: the user's ringtone is played at the end of the segment.
+     */
+    public final static int CUE_RINGTONE = 1;
+
+    /**
+     * The maximum number of timeline runs a program may compile into. Nested
+     * repeats multiply, so this keeps a small program from taking up all the
+     * memory.
+     */
+    public final static int MAX_RUNS = 100000;
+
+    /**
+     * The maximum nesting depth of sequences (a sequence of segments only has
+     * a depth of 1). Compiling and saving programs recurse once per level,
+     * so this keeps a deeply nested program from overflowing the stack.
+     */
+    public final static int MAX_DEPTH = 16;
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+
+    //
+    // Program items.
+    //
+
+    /**
+     * Either a segment or a sequence.
+     */
+    public static abstract class Item
+    {
+        /**
+         * Append the runs of this item to the given run list.
+         */
+        abstract void compile(RunList runs);
+    }
+
+    /**
+     * A single timed segment.
+     */
+    public static final class Segment extends Item
+    {
+        /**
+         * The segment length, in seconds.
+         */
+        public final int length;
+
+        /**
+         * What to play when the segment ends (one of the CUE_ constants).
+         */
+        public final int cue;
+
+        public Segment(int length, int cue)
+        {
+            if (length < 0)
+                throw new IllegalArgumentException("Negative segment length");
+            if (!isCue(cue))
+                throw new IllegalArgumentException("Unknown cue " + cue);
+            this.length = length;
+            this.cue = cue;
+        }
+
+        @Override
+        void compile(RunList runs)
+        {
+            runs.add((long)length * MILLIS_IN_SECOND, 1, cue);
+        }
+    }
+
+    /**
+     * A sequence of items, repeated a number of times.
+     */
+    public static final class Sequence extends Item
+    {
+        /**
+         * The number of times the sequence is repeated.
+         */
+        public final int repeat;
+
+        /**
+         * The sequence items (unmodifiable).
+         */
+        public final List<Item> items;
+
+        /**
+         * The nesting depth of the sequence: 1 if it has no sequences in it,
+         * and one more than its deepest sequence otherwise.
+         */
+        public final int depth;
+
+        /**
+         * @throws IllegalArgumentException if the repeat count is negative, or
+         * the sequence would be nested deeper than MAX_DEPTH.
+         */
+        public Sequence(int repeat, Item... items)
+        {
+            if (repeat < 0)
+                throw new IllegalArgumentException("Negative repeat count");
+            int depth = 1;
+            for (Item item : items)
+            {
+                if (item instanceof Sequence)
+                    depth = Math.max(depth, ((Sequence)item).depth + 1);
+            }
+            if (depth > MAX_DEPTH)
+                throw new IllegalArgumentException(
+                        "Program is nested too deep");
+            this.repeat = repeat;
+            this.items = Collections.unmodifiableList(
+                    new ArrayList<Item>(Arrays.asList(items)));
+            this.depth = depth;
+        }
+
+        @Override
+        void compile(RunList runs)
+        {
+            if (repeat == 0)
+                return;
+            RunList body = new RunList();
+            for (Item item : items)
+                item.compile(body);
+
+            // An empty body adds nothing however often it's repeated. A body
+            // that is a single run is repeated by multiplying its count, so
+            // that a huge repeat count costs nothing. Otherwise each
+            // repetition adds at least one run (the body's adjacent runs
+            // never merge with each other), so the MAX_RUNS check bounds the
+            // loop.
+            if (body.count == 0)
+                return;
+            if (body.count == 1)
+            {
+                runs.add(body.lengths[0],
+                         Timeline.saturatedMultiply(body.counts[0], repeat),
+                         body.cues[0]);
+                return;
+            }
+            for (int i = 0; i < repeat; i++)
+                runs.addAll(body);
+        }
+    }
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The program name, as shown to the user.
+     */
+    private final String m_name;
+
+    /**
+     * The program body.
+     */
+    private final Sequence m_body;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a program with the given name and body. The body is never
+     * nested deeper than MAX_DEPTH, since Sequence won't nest that deep.
+     */
+    public Program(String name, Sequence body)
+    {
+        m_name = name;
+        m_body = body;
+    }
+
+    /**
+     * Get the program name.
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * Get the program body.
+     */
+    public Sequence getBody()
+    {
+        return m_body;
+    }
+
+    /**
+     * Check if the given value is one of the CUE_ constants.
+     */
+    public static boolean isCue(int cue)
+    {
+        return (cue == CUE_NONE || cue == CUE_RINGTONE);
+    }
+
+    /**
+     * Compile the program into a timeline.
+     *
+     * @throws IllegalArgumentException if the program compiles into more than
+     * MAX_RUNS runs.
+     */
+    public Timeline compile()
+    {
+        RunList runs = new RunList();
+        m_body.compile(runs);
+        return new Timeline(RunList.copyOf(runs.lengths, runs.count),
+                            RunList.copyOf(runs.counts, runs.count),
+                            RunList.copyOf(runs.cues, runs.count), 1);
+    }
+
+    /**
+     * A growable list of timeline runs, used while compiling. Adjacent
+     * segments with the same length and cue are merged as they are added.
+     */
+    static final class RunList
+    {
+        long[] lengths = new long[16];
+        long[] counts = new long[16];
+        int[] cues = new int[16];
+        int count;
+
+        void add(long length, long segments, int cue)
+        {
+            if (segments <= 0)
+                return;
+            if (count > 0 && lengths[count - 1] == length &&
+                cues[count - 1] == cue)
+            {
+                counts[count - 1] =
+                    Timeline.saturatedAdd(counts[count - 1], segments);
+                return;
+            }
+            if (count == MAX_RUNS)
+                throw new IllegalArgumentException("Program is too long");
+            if (count == lengths.length)
+            {
+                lengths = copyOf(lengths, count * 2);
+                counts = copyOf(counts, count * 2);
+                cues = copyOf(cues, count * 2);
+            }
+            lengths[count] = length;
+            counts[count] = segments;
+            cues[count] = cue;
+            count++;
+        }
+
+        void addAll(RunList runs)
+        {
+            for (int i = 0; i < runs.count; i++)
+                add(runs.lengths[i], runs.counts[i], runs.cues[i]);
+        }
+
+        // Arrays.copyOf() is not available before API level 9.
+        static long[] copyOf(long[] array, int length)
+        {
+            long[] copy = new long[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+            return copy;
+        }
+
+        static int[] copyOf(int[] array, int length)
+        {
+            int[] copy = new int[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+            return copy;
+        }
+    }
+}
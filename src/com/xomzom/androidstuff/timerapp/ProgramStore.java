@@ -0,0 +1,334 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Loads and saves the workout programs (presets), in a compact, versioned
+ * binary file in the application's private storage.
+ * File format (all big-endian, as written by DataOutputStream):
+ * <pre>
+ *   int     magic (FILE_MAGIC)
+ *   short   format version (FORMAT_VERSION)
+ *   ushort  number of programs
+ *   per program:
+ *     UTF   name
+ *     item  body (always a sequence)
+ *   item:
+ *     byte  ITEM_SEGMENT: int length (seconds), byte cue
+ *     byte  ITEM_SEQUENCE: int repeat, ushort item count, items
+ * </pre>
+ * If there is no file yet, a few built-in programs are returned.
+ *
+ * @author dedi
+ */
+public class ProgramStore
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The programs file name.
+     */
+    private final static String FILE_NAME = "programs.bin";
+
+    /**
+     * The file magic number ("ITPR").
+     */
+    private final static int FILE_MAGIC = 0x49545052;
+
+    /**
+     * The current format version.
+     */
+    private final static short FORMAT_VERSION = 1;
+
+    /**
+     * Item tags.
+     */
+    private final static byte ITEM_SEGMENT = 0;
+    private final static byte ITEM_SEQUENCE = 1;
+
+    /**
+     * The largest number of programs, or of items in a sequence, that fits
+     * in the file (counts are unsigned shorts).
+     */
+    private final static int MAX_COUNT = 0xffff;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The programs file.
+     */
+    private final File m_file;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a store for the given context's programs file.
+     */
+    public ProgramStore(Context context)
+    {
+        m_file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Load all the programs. Returns the built-in programs if nothing was
+     * saved yet, or the file can't be read or is corrupt.
+     */
+    public List<Program> load()
+    {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(m_file)));
+            return read(in);
+        }
+        catch (FileNotFoundException e)
+        {
+            return getBuiltInPrograms();
+        }
+        catch (IOException e)
+        {
+            Log.e(this.getClass().toString(), "Couldn't load programs", e);
+            return getBuiltInPrograms();
+        }
+        catch (RuntimeException e)
+        {
+            // A corrupt file that got past the checks in read() must not
+            // take down the settings screen or the service with it.
+            Log.e(this.getClass().toString(), "Corrupt programs file", e);
+            return getBuiltInPrograms();
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /**
+     * Find a program by name.
+     *
+     * @return The program, or null if there is no such program.
+     */
+    public Program find(String name)
+    {
+        for (Program program : load())
+        {
+            if (program.getName().equals(name))
+                return program;
+        }
+        return null;
+    }
+
+    /**
+     * Save the given programs, replacing all the saved ones. The file is
+     * written to a temporary file first, and then renamed over the old one,
+     * so a failed save never leaves a half written file behind.
+     */
+    public void save(List<Program> programs) throws IOException
+    {
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            write(out, programs);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tempFile.renameTo(m_file))
+            throw new IOException("Couldn't rename " + tempFile);
+    }
+
+    /**
+     * Read all the programs from the given stream.
+     */
+    static List<Program> read(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != FILE_MAGIC)
+            throw new IOException("Not a programs file");
+        short version = in.readShort();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unknown programs file version " + version);
+
+        int count = in.readUnsignedShort();
+        List<Program> programs = new ArrayList<Program>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String name = in.readUTF();
+            if (in.readByte() != ITEM_SEQUENCE)
+                throw new IOException("Program body is not a sequence");
+            programs.add(new Program(name, readSequence(in, 1)));
+        }
+        return programs;
+    }
+
+    /**
+     * Write the given programs to the given stream.
+     */
+    static void write(DataOutputStream out, List<Program> programs)
+        throws IOException
+    {
+        out.writeInt(FILE_MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        writeCount(out, programs.size());
+        for (Program program : programs)
+        {
+            out.writeUTF(program.getName());
+            writeItem(out, program.getBody());
+        }
+    }
+
+    /**
+     * Read a sequence (after its tag) from the given stream.
+     *
+     * @param depth The nesting depth of the sequence (1 for the program
+     * body).
+     */
+    private static Program.Sequence readSequence(DataInputStream in,
+                                                 int depth)
+        throws IOException
+    {
+        if (depth > Program.MAX_DEPTH)
+            throw new IOException("Program is nested too deep");
+        int repeat = in.readInt();
+        if (repeat < 0)
+            throw new IOException("Negative repeat count " + repeat);
+        int count = in.readUnsignedShort();
+        Program.Item[] items = new Program.Item[count];
+        for (int i = 0; i < count; i++)
+        {
+            byte tag = in.readByte();
+            if (tag == ITEM_SEGMENT)
+            {
+                int length = in.readInt();
+                if (length < 0)
+                    throw new IOException("Negative segment length " + length);
+                int cue = in.readByte();
+                if (!Program.isCue(cue))
+                    throw new IOException("Unknown cue " + cue);
+                items[i] = new Program.Segment(length, cue);
+            }
+            else if (tag == ITEM_SEQUENCE)
+                items[i] = readSequence(in, depth + 1);
+            else
+                throw new IOException("Unknown program item " + tag);
+        }
+        return new Program.Sequence(repeat, items);
+    }
+
+    /**
+     * Write a single item to the given stream.
+     */
+    private static void writeItem(DataOutputStream out, Program.Item item)
+        throws IOException
+    {
+        if (item instanceof Program.Segment)
+        {
+            Program.Segment segment = (Program.Segment)item;
+            out.writeByte(ITEM_SEGMENT);
+            out.writeInt(segment.length);
+            out.writeByte(segment.cue);
+            return;
+        }
+        Program.Sequence sequence = (Program.Sequence)item;
+        out.writeByte(ITEM_SEQUENCE);
+        out.writeInt(sequence.repeat);
+        writeCount(out, sequence.items.size());
+        for (Program.Item child : sequence.items)
+            writeItem(out, child);
+    }
+
+    /**
+     * Write a list size as an unsigned short, refusing sizes that don't fit.
+     */
+    private static void writeCount(DataOutputStream out, int count)
+        throws IOException
+    {
+        if (count > MAX_COUNT)
+            throw new IOException("Too many items to save: " + count);
+        out.writeShort(count);
+    }
+
+    /**
+     * Get the programs available before the user saved any.
+     */
+    private static List<Program> getBuiltInPrograms()
+    {
+        List<Program> programs = new ArrayList<Program>();
+        programs.add(new Program("Tabata", new Program.Sequence(1,
+                new Program.Segment(10, Program.CUE_RINGTONE),
+                new Program.Sequence(8,
+                        new Program.Segment(20, Program.CUE_RINGTONE),
+                        new Program.Segment(10, Program.CUE_RINGTONE)))));
+        programs.add(new Program("EMOM 10", new Program.Sequence(1,
+                new Program.Segment(10, Program.CUE_RINGTONE),
+                new Program.Sequence(10,
+                        new Program.Segment(60, Program.CUE_RINGTONE)))));
+        return programs;
+    }
+
+    /**
+     * Close a stream, ignoring errors.
+     */
+    private static void close(DataInputStream in)
+    {
+        if (in == null)
+            return;
+        try {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing to do.
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Plays boundary cues that are scheduled ahead of time, aligned to the
+ * sample. A dedicated audio thread keeps a continuous AudioTrack stream
+ * going, writing silence up to the exact sample that plays at the next
+ * boundary's deadline, and the cue from there. The cue timing therefore
+ * depends only on the audio clock, and not on how busy the UI thread is.
+ * The cue is a short synthesized beep, since decoding arbitrary ringtones to
+ * PCM is not available on all the API levels we support.
+ * Keeping the stream going keeps the audio hardware awake, so the stream
+ * should only be started while a session is running.
+ * The lateness of each cue is recorded in a histogram: how far past its
+ * deadline the beep's first sample was placed in the stream, by the audio
+ * clock (0 when it was written ahead, and so starts on the exact sample).
+ * The beep is heard when the playback head reaches that sample, plus the
+ * device's fixed output latency, which is not measured.
+ *
+ * @author dedi
+ */
+public class ScheduledCuePlayer
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The stream sample rate.
+     */
+    private final static int SAMPLE_RATE = 22050;
+
+    /**
+     * Frames written to the stream at a time (about 23ms).
+     */
+    private final static int CHUNK_FRAMES = 512;
+
+    /**
+     * The beep length, in milliseconds.
+     */
+    private final static int BEEP_MILLIS = 250;
+
+    /**
+     * The beep fade in and fade out length, in milliseconds.
+     */
+    private final static int BEEP_FADE_MILLIS = 5;
+
+    /**
+     * The beep frequency, in Hz.
+     */
+    private final static int BEEP_FREQUENCY = 880;
+
+    /**
+     * A cue that is later than this (in milliseconds) by the time it's
+     * written is dropped rather than played.
+     */
+    private final static int MAX_LATENESS = 500;
+
+    /**
+     * The 'no cue scheduled' deadline value.
+     */
+    private final static long NO_CUE = Long.MIN_VALUE;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The beep samples.
+     */
+    private final short[] m_beep;
+
+    /**
+     * The tracer the cues are recorded to.
+     */
+    private final Tracer m_tracer;
+
+    /**
+     * The deadline (SystemClock.elapsedRealtime()) of the next cue, or NO_CUE.
+     */
+    private final AtomicLong m_nextCueDeadline = new AtomicLong(NO_CUE);
+
+    /**
+     * The current audio thread, or null if the stream is not running. A
+     * stopped thread may still be finishing a beep after this is cleared.
+     */
+    private volatile StreamThread m_thread;
+
+    /**
+     * How late (in milliseconds) the cues were placed in the stream.
+     * Recorded on the audio thread, so it's only used while holding its lock.
+     */
+    private final LatencyHistogram m_lateness = new LatencyHistogram();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a scheduled cue player, recording its cues to the given tracer.
+     * The stream is not started until start() is called.
+     */
+    public ScheduledCuePlayer(Tracer tracer)
+    {
+        m_beep = createBeep();
+        m_tracer = tracer;
+    }
+
+    /**
+     * Start the audio stream, if it's not running already.
+     */
+    public synchronized void start()
+    {
+        if (m_thread != null)
+            return;
+        m_thread = new StreamThread();
+        m_thread.start();
+    }
+
+    /**
+     * Stop the audio stream, and drop any scheduled cue that didn't start
+     * playing yet. A cue that did start is played to the end. Doesn't wait
+     * for the audio thread to finish.
+     */
+    public synchronized void stop()
+    {
+        cancelCue();
+        m_thread = null;
+    }
+
+    /**
+     * Schedule the next cue, replacing any cue that was scheduled and not
+     * played yet.
+     *
+     * @param deadline The time (SystemClock.elapsedRealtime()) the cue should
+     * start playing at.
+     */
+    public void scheduleCue(long deadline)
+    {
+        m_tracer.record(Tracer.EVENT_CUE_REQUESTED,
+                        deadline - SystemClock.elapsedRealtime(), 1);
+        m_nextCueDeadline.set(deadline);
+    }
+
+    /**
+     * Drop the scheduled cue, if any.
+     */
+    public void cancelCue()
+    {
+        m_nextCueDeadline.set(NO_CUE);
+    }
+
+    /**
+     * Write the histogram of the cues' lateness, as LatencyHistogram.write()
+     * does.
+     */
+    public void writeLateness(PrintWriter out)
+    {
+        synchronized (m_lateness)
+        {
+            m_lateness.write(out);
+        }
+    }
+
+    /**
+     * Forget the recorded cue lateness.
+     */
+    public void resetLateness()
+    {
+        synchronized (m_lateness)
+        {
+            m_lateness.reset();
+        }
+    }
+
+    /**
+     * Synthesize the beep: a sine tone, faded in and out to avoid clicks.
+     */
+    private static short[] createBeep()
+    {
+        int frames = SAMPLE_RATE * BEEP_MILLIS / 1000;
+        int fadeFrames = SAMPLE_RATE * BEEP_FADE_MILLIS / 1000;
+        short[] beep = new short[frames];
+        for (int i = 0; i < frames; i++)
+        {
+            double envelope =
+                Math.min(1.0, Math.min(i, frames - 1 - i) / (double)fadeFrames);
+            double sample = Math.sin(2 * Math.PI * BEEP_FREQUENCY * i /
+                                     SAMPLE_RATE);
+            beep[i] = (short)(sample * envelope * Short.MAX_VALUE * 0.8);
+        }
+        return beep;
+    }
+
+    /**
+     * The audio thread. Keeps writing chunks while it's the current thread,
+     * or while it's in the middle of a beep. Writing blocks while the stream
+     * buffer is full, which paces the loop.
+     */
+    private class StreamThread extends Thread
+    {
+        /**
+         * The chunk being written.
+         */
+        private final short[] m_chunk = new short[CHUNK_FRAMES];
+
+        /**
+         * The number of frames written so far.
+         */
+        private long m_framesWritten;
+
+        /**
+         * The position in m_beep of the next beep sample to write, or -1 if
+         * no beep is being played.
+         */
+        private int m_beepPosition = -1;
+
+        StreamThread()
+        {
+            super("ScheduledCuePlayer");
+        }
+
+        @Override
+        public void run()
+        {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            int bufferSize = Math.max(AudioTrack.getMinBufferSize(SAMPLE_RATE,
+                    AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT), CHUNK_FRAMES * 2 * 2);
+            AudioTrack track = new AudioTrack(AudioManager.STREAM_NOTIFICATION,
+                    SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, bufferSize,
+                    AudioTrack.MODE_STREAM);
+            if (track.getState() != AudioTrack.STATE_INITIALIZED)
+            {
+                Log.e(this.getClass().toString(),
+                      "Couldn't create audio stream");
+                track.release();
+                return;
+            }
+
+            track.play();
+            while (m_thread == this || m_beepPosition >= 0)
+            {
+                fillChunk(track);
+                track.write(m_chunk, 0, CHUNK_FRAMES);
+                m_framesWritten += CHUNK_FRAMES;
+            }
+            // Plays whatever was already written, then stops.
+            track.stop();
+            track.release();
+        }
+
+        /**
+         * Fill the next chunk with silence, and the scheduled beep where it
+         * falls in the chunk.
+         */
+        private void fillChunk(AudioTrack track)
+        {
+            Arrays.fill(m_chunk, (short)0);
+            int position = 0;
+            if (m_beepPosition < 0)
+            {
+                long deadline = m_nextCueDeadline.get();
+                if (deadline == NO_CUE || m_thread != this)
+                    return;
+                // The frame that will be played at the deadline, according to
+                // the frame being played right now.
+                long now = SystemClock.elapsedRealtime();
+                long headFrame = track.getPlaybackHeadPosition() & 0xffffffffL;
+                long cueFrame =
+                    headFrame + (deadline - now) * SAMPLE_RATE / 1000;
+                long offset = cueFrame - m_framesWritten;
+                if (offset >= CHUNK_FRAMES)
+                    return;
+                if (!m_nextCueDeadline.compareAndSet(deadline, NO_CUE))
+                    return; // Rescheduled meanwhile; try again next chunk.
+
+                long lateness = Math.max(-offset * 1000 / SAMPLE_RATE, 0);
+                synchronized (m_lateness)
+                {
+                    m_lateness.record(lateness);
+                }
+                if (lateness > MAX_LATENESS)
+                {
+                    Log.w(this.getClass().toString(),
+                          "Dropped a cue that was " + lateness + "ms late");
+                    return;
+                }
+                position = (int)Math.max(offset, 0);
+                m_beepPosition = 0;
+                m_tracer.record(Tracer.EVENT_CUE_STARTED, lateness, 1);
+            }
+
+            int count = Math.min(CHUNK_FRAMES - position,
+                                 m_beep.length - m_beepPosition);
+            System.arraycopy(m_beep, m_beepPosition, m_chunk, position, count);
+            m_beepPosition += count;
+            if (m_beepPosition == m_beep.length)
+                m_beepPosition = -1;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * A snapshot of a started session, saved so the session can be restored if
+ * the process is killed. It's only saved on session state transitions (not
+ * on every tick or boundary): the position in the timeline is kept as the
+ * absolute deadline of a segment, and the following boundaries follow from
+ * the timeline.
+ * The snapshot holds the rest of the session's timeline itself, from the
+ * current segment on, rather than rebuilding it from the settings when it's
+ * restored: the program or the interval settings may have changed since the
+ * session was started, and a re-planned session is not what either of them
+ * compiles to anyway. The restored timeline starts at the saved segment, with
+ * the same interval numbers.
+ * The snapshot is a small record in the application's private storage (all
+ * big-endian, as written by DataOutputStream):
+ * <pre>
+ *   int      magic (FILE_MAGIC)
+ *   short    format version (FORMAT_VERSION)
+ *   boolean  paused
+ *   boolean  the session runs the interval settings (so it's re-planned
+ *            when they change)
+ *   long     segment deadline (SystemClock.elapsedRealtime())
+ *   long     milliseconds left in the segment, if paused
+ *   long     time saved (SystemClock.elapsedRealtime())
+ *   long     boot time (System.currentTimeMillis(), when saved)
+ *   timeline the segments from the current one on (see Timeline.write())
+ * </pre>
+ * The file is replaced atomically, by renaming a temporary file over it.
+ *
+ * @author dedi
+ */
+public final class SessionSnapshot
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The snapshot file name.
+     */
+    private final static String FILE_NAME = "session.bin";
+
+    /**
+     * The file magic number ("ITSS").
+     */
+    private final static int FILE_MAGIC = 0x49545353;
+
+    /**
+     * The current format version.
+     */
+    private final static short FORMAT_VERSION = 2;
+
+    /**
+     * The boot time is computed from two clocks that may be adjusted
+     * separately, so it's only compared up to this many milliseconds.
+     */
+    private final static long MAX_BOOT_TIME_SKEW = 10 * 60 * 1000;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * true if the session is paused.
+     */
+    private final boolean m_paused;
+
+    /**
+     * true if the session runs the interval settings (rather than a program).
+     */
+    private final boolean m_usesIntervals;
+
+    /**
+     * The session's timeline, and the index of the current segment in it.
+     * Once loaded, the timeline starts at the current segment.
+     */
+    private final Timeline m_timeline;
+    private final long m_segment;
+
+    /**
+     * The time (SystemClock.elapsedRealtime()) the current segment ends at,
+     * if the session is running.
+     */
+    private final long m_deadline;
+
+    /**
+     * The milliseconds left in the current segment, if the session is paused.
+     */
+    private final long m_pausedRemaining;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a snapshot of a running session.
+     *
+     * @param timeline The session's timeline.
+     * @param segment The index of the current segment in the timeline.
+     * @param usesIntervals true if the session runs the interval settings.
+     * @param deadline The time (SystemClock.elapsedRealtime()) the current
+     * segment ends at.
+     */
+    public static SessionSnapshot running(Timeline timeline, long segment,
+                                          boolean usesIntervals, long deadline)
+    {
+        return new SessionSnapshot(false, timeline, segment, usesIntervals,
+                                   deadline, 0);
+    }
+
+    /**
+     * Create a snapshot of a paused session.
+     *
+     * @param timeline The session's timeline.
+     * @param segment The index of the current segment in the timeline.
+     * @param usesIntervals true if the session runs the interval settings.
+     * @param remaining The milliseconds left in the current segment.
+     */
+    public static SessionSnapshot paused(Timeline timeline, long segment,
+                                         boolean usesIntervals, long remaining)
+    {
+        return new SessionSnapshot(true, timeline, segment, usesIntervals, 0,
+                                   remaining);
+    }
+
+    /**
+     * Create a snapshot with the given values.
+     */
+    private SessionSnapshot(boolean paused, Timeline timeline, long segment,
+                            boolean usesIntervals, long deadline,
+                            long pausedRemaining)
+    {
+        m_paused = paused;
+        m_timeline = timeline;
+        m_segment = segment;
+        m_usesIntervals = usesIntervals;
+        m_deadline = deadline;
+        m_pausedRemaining = pausedRemaining;
+    }
+
+    /**
+     * Check if the session is paused.
+     */
+    public boolean isPaused()
+    {
+        return m_paused;
+    }
+
+    /**
+     * Check if the session runs the interval settings (rather than a
+     * program).
+     */
+    public boolean usesIntervals()
+    {
+        return m_usesIntervals;
+    }
+
+    /**
+     * Get the session's timeline. For a loaded snapshot, it's the rest of the
+     * session, starting at the current segment.
+     */
+    public Timeline getTimeline()
+    {
+        return m_timeline;
+    }
+
+    /**
+     * Get the index of the current segment in the timeline (0, for a loaded
+     * snapshot).
+     */
+    public long getSegment()
+    {
+        return m_segment;
+    }
+
+    /**
+     * Get the number of milliseconds left in the current segment at the
+     * given time (SystemClock.elapsedRealtime()). May be negative, if the
+     * segment is over by then.
+     */
+    public long getMillisRemaining(long now)
+    {
+        return (m_paused ? m_pausedRemaining : m_deadline - now);
+    }
+
+    /**
+     * Load the saved snapshot.
+     *
+     * @return The snapshot, or null if there is none, it can't be read, or
+     * it was saved before the device was last booted (so its deadlines are
+     * meaningless).
+     */
+    public static SessionSnapshot load(Context context)
+    {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(getFile(context))));
+            if (in.readInt() != FILE_MAGIC ||
+                in.readShort() != FORMAT_VERSION)
+            {
+                throw new IOException("Not a session snapshot");
+            }
+            boolean paused = in.readBoolean();
+            boolean usesIntervals = in.readBoolean();
+            long deadline = in.readLong();
+            long pausedRemaining = in.readLong();
+            long savedAt = in.readLong();
+            long bootTime = in.readLong();
+            Timeline timeline = Timeline.read(in);
+            if (timeline.getSegmentCount() == 0)
+                throw new IOException("Empty session timeline");
+
+            long now = SystemClock.elapsedRealtime();
+            if (savedAt > now ||
+                Math.abs(bootTime - getBootTime()) > MAX_BOOT_TIME_SKEW)
+            {
+                Log.d(SessionSnapshot.class.toString(),
+                      "Session snapshot is from before the last boot");
+                return null;
+            }
+            return new SessionSnapshot(paused, timeline, 0, usesIntervals,
+                    deadline, pausedRemaining);
+        }
+        catch (FileNotFoundException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            Log.e(SessionSnapshot.class.toString(),
+                  "Couldn't load session snapshot", e);
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /**
+     * Save the snapshot, replacing the saved one. The file is written to a
+     * temporary file first, and then renamed over the old one, so a failed
+     * save (or the process being killed) never leaves a half written file
+     * behind.
+     */
+    public void save(Context context) throws IOException
+    {
+        File file = getFile(context);
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeBoolean(m_paused);
+            out.writeBoolean(m_usesIntervals);
+            out.writeLong(m_deadline);
+            out.writeLong(m_pausedRemaining);
+            out.writeLong(SystemClock.elapsedRealtime());
+            out.writeLong(getBootTime());
+            m_timeline.write(out, m_segment);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("Couldn't rename " + tempFile);
+    }
+
+    /**
+     * Delete the saved snapshot, if any.
+     */
+    public static void delete(Context context)
+    {
+        getFile(context).delete();
+    }
+
+    /**
+     * Get the snapshot file.
+     */
+    private static File getFile(Context context)
+    {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Get the time (System.currentTimeMillis()) the device was booted at.
+     */
+    private static long getBootTime()
+    {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Close a stream, ignoring errors.
+     */
+    private static void close(DataInputStream in)
+    {
+        if (in == null)
+            return;
+        try {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing to do.
+        }
+    }
+}
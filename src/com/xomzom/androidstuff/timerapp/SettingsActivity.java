@@ -28,9 +28,15 @@
 
 package com.xomzom.androidstuff.timerapp;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
+import android.util.Log;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.widget.Toast;
 
@@ -55,6 +61,106 @@ public class SettingsActivity extends PreferenceActivity
                 Integer.MAX_VALUE);
         attachIntValidatingListener(R.string.pref_countdown_key, 0,
                 Integer.MAX_VALUE);
+        attachSaveProgramListener();
+        fillProgramList();
+    }
+
+    /**
+     * Helper method: fill the program preference with the available programs.
+     * The first choice is always to use the interval settings instead.
+     */
+    private void fillProgramList()
+    {
+        ListPreference preference = (ListPreference)findPreference(
+                getString(R.string.pref_program_key));
+        if (preference == null)
+            return;
+
+        List<Program> programs = new ProgramStore(this).load();
+        CharSequence[] entries = new CharSequence[programs.size() + 1];
+        CharSequence[] values = new CharSequence[programs.size() + 1];
+        entries[0] = getString(R.string.pref_program_none);
+        values[0] = "";
+        for (int i = 0; i < programs.size(); i++)
+        {
+            entries[i + 1] = programs.get(i).getName();
+            values[i + 1] = programs.get(i).getName();
+        }
+        preference.setEntries(entries);
+        preference.setEntryValues(values);
+    }
+
+    /**
+     * Helper method: attach a listener to the "save as program" preference,
+     * that saves the current interval settings as a program under the
+     * entered name. The name itself is not stored as a preference.
+     */
+    private void attachSaveProgramListener()
+    {
+        Preference preference = (Preference)findPreference(
+                getString(R.string.pref_save_program_key));
+        if (preference == null)
+            return;
+
+        preference.setOnPreferenceChangeListener(
+                new OnPreferenceChangeListener() {
+                    public boolean onPreferenceChange(Preference preference,
+                            Object newValue)
+                    {
+                        saveIntervalsAsProgram(newValue.toString().trim());
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * Helper method: save the current interval settings (countdown, interval
+     * length and number of intervals) as a program with the given name,
+     * replacing any program with the same name, and let the user know how
+     * it went.
+     */
+    private void saveIntervalsAsProgram(String name)
+    {
+        if (name.length() == 0)
+            return;
+
+        TimerSettings settings = SettingsLoader.load(this);
+        Program.Sequence intervals = new Program.Sequence(
+                settings.getNumIntervals(),
+                new Program.Segment(settings.getIntervalLength(),
+                                    Program.CUE_RINGTONE));
+        Program.Sequence body;
+        if (settings.getCountdown() > 0)
+        {
+            body = new Program.Sequence(1,
+                    new Program.Segment(settings.getCountdown(),
+                                        Program.CUE_RINGTONE),
+                    intervals);
+        }
+        else
+            body = new Program.Sequence(1, intervals);
+
+        ProgramStore store = new ProgramStore(this);
+        List<Program> programs = new ArrayList<Program>();
+        for (Program program : store.load())
+        {
+            if (!program.getName().equals(name))
+                programs.add(program);
+        }
+        programs.add(new Program(name, body));
+
+        String message;
+        try {
+            store.save(programs);
+            message = getString(R.string.program_saved_message, name);
+        }
+        catch (IOException e)
+        {
+            Log.e(this.getClass().toString(), "Couldn't save programs", e);
+            message = getString(R.string.program_save_failed_message, name);
+        }
+        fillProgramList();
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
     }
 
     /**
@@ -0,0 +1,201 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+
+/**
+ * Loads TimerSettings snapshots from the shared preferences. Loading may
+ * block on disk (the first access to the preferences parses their XML file,
+ * and programs are read from their own file), so it's normally done in the
+ * background.
+ *
+ * @author dedi
+ */
+public class SettingsLoader
+{
+    /**
+     * A listener to background loading.
+     */
+    public interface Listener
+    {
+        /**
+         * Settings were loaded. Called on the UI thread.
+         */
+        public void onSettingsLoaded(TimerSettings settings);
+    }
+
+    /**
+     * No instances - this is a utility class.
+     */
+    private SettingsLoader()
+    {
+    }
+
+    /**
+     * Load the settings on a background thread, and deliver them to the given
+     * listener on the UI thread. Must be called on the UI thread.
+     */
+    public static void loadInBackground(final Context context,
+                                        final Listener listener)
+    {
+        new AsyncTask<Void, Void, TimerSettings>() {
+            @Override
+            protected TimerSettings doInBackground(Void... params)
+            {
+                return load(context);
+            }
+
+            @Override
+            protected void onPostExecute(TimerSettings settings)
+            {
+                listener.onSettingsLoaded(settings);
+            }
+        }.execute();
+    }
+
+    /**
+     * Load the settings on the calling thread.
+     */
+    public static TimerSettings load(Context context)
+    {
+        SharedPreferences prefs =
+            PreferenceManager.getDefaultSharedPreferences(context);
+
+        int numIntervals = getIntPref(context, prefs,
+                R.string.pref_num_intervals_key,
+                R.string.pref_num_intervals_default);
+        int intervalLength = getIntPref(context, prefs,
+                R.string.pref_interval_length_key,
+                R.string.pref_interval_length_default);
+        int countdown = getIntPref(context, prefs,
+                R.string.pref_countdown_key,
+                R.string.pref_countdown_default);
+
+        String programName =
+            prefs.getString(context.getString(R.string.pref_program_key), "");
+        Program program = null;
+        if (programName.length() != 0)
+            program = new ProgramStore(context).find(programName);
+
+        String ringtoneUri =
+            prefs.getString(context.getString(R.string.pref_ringtone_key),
+                            "DEFAULT_NOTIFICATION_URI");
+        boolean preventLocking =
+            prefs.getBoolean(context.getString(R.string.pref_nolock_key),
+                             false);
+        boolean preciseCues =
+            prefs.getBoolean(context.getString(R.string.pref_precise_cue_key),
+                             false);
+        boolean lowPower =
+            prefs.getBoolean(context.getString(R.string.pref_low_power_key),
+                             false);
+        int displayDecimals = getIntPref(context, prefs,
+                R.string.pref_display_decimals_key,
+                R.string.pref_display_decimals_default);
+
+        return new TimerSettings(numIntervals, intervalLength, countdown,
+                program, ringtoneUri, preventLocking, preciseCues, lowPower,
+                displayDecimals);
+    }
+
+    /**
+     * Get a copy of the given settings snapshot, with the value of a single
+     * changed preference re-read. Only handles the preferences that don't
+     * need more than the (already loaded) preferences themselves; for the
+     * rest, use load() or loadInBackground().
+     *
+     * @param key The key of the changed preference.
+     * @return The updated settings, or null if the preference is not one
+     * that can be updated on its own.
+     */
+    public static TimerSettings update(Context context,
+                                       SharedPreferences prefs,
+                                       TimerSettings settings, String key)
+    {
+        if (key.equals(context.getString(R.string.pref_num_intervals_key)))
+        {
+            return settings.withNumIntervals(getIntPref(context, prefs,
+                    R.string.pref_num_intervals_key,
+                    R.string.pref_num_intervals_default));
+        }
+        if (key.equals(context.getString(R.string.pref_interval_length_key)))
+        {
+            return settings.withIntervalLength(getIntPref(context, prefs,
+                    R.string.pref_interval_length_key,
+                    R.string.pref_interval_length_default));
+        }
+        if (key.equals(context.getString(R.string.pref_countdown_key)))
+        {
+            return settings.withCountdown(getIntPref(context, prefs,
+                    R.string.pref_countdown_key,
+                    R.string.pref_countdown_default));
+        }
+        if (key.equals(context.getString(R.string.pref_ringtone_key)))
+        {
+            return settings.withRingtoneUri(prefs.getString(key,
+                    "DEFAULT_NOTIFICATION_URI"));
+        }
+        if (key.equals(context.getString(R.string.pref_nolock_key)))
+            return settings.withPreventLocking(prefs.getBoolean(key, false));
+        if (key.equals(context.getString(R.string.pref_precise_cue_key)))
+            return settings.withPreciseCues(prefs.getBoolean(key, false));
+        if (key.equals(context.getString(R.string.pref_low_power_key)))
+            return settings.withLowPower(prefs.getBoolean(key, false));
+        if (key.equals(context.getString(R.string.pref_display_decimals_key)))
+        {
+            return settings.withDisplayDecimals(getIntPref(context, prefs,
+                    R.string.pref_display_decimals_key,
+                    R.string.pref_display_decimals_default));
+        }
+        return null;
+    }
+
+    /**
+     * Helper method: get an int preference (stored as a string), identified
+     * by it's key string ID. If the preference was not set, or is not an int,
+     * return the default value string, cast to integer, instead.
+     *
+     * @param keyStrId The resource ID of the string identifying the preference
+     * key.
+     * @param defValueResId The resource ID of the string specifying the
+     * default value (and NOT the default value itself!!!).
+     */
+    private static int getIntPref(Context context, SharedPreferences prefs,
+                                  int keyStrId, int defValueResId)
+    {
+        String key = context.getString(keyStrId);
+        String defaultValue = context.getString(defValueResId);
+        return TimerSettings.parseInt(prefs.getString(key, defaultValue),
+                Integer.parseInt(defaultValue));
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Finds the largest text size at which a number of digits fits a box.
+ * The size is found by a binary search against the actual font measurements,
+ * and the results are cached by (width, height, number of chars, typeface),
+ * so asking again for a box and char count that were already fitted costs no
+ * measuring at all.
+ *
+ * @author dedi
+ */
+public class TextSizeFitter
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Number of cached results. The digit count only changes a few times a
+     * session, and the box only on layout changes, so a few entries are
+     * plenty.
+     */
+    private final static int CACHE_SIZE = 4;
+
+    /**
+     * The digits the sample text is made of.
+     */
+    private final static String DIGITS = "0123456789";
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The paint used for measuring. Never used for drawing.
+     */
+    private final Paint m_paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * The sample text that is measured: the widest digit, repeated.
+     */
+    private final char[] m_sample = new char[DigitFormatter.MAX_CHARS];
+
+    /**
+     * The typeface the sample text was chosen for.
+     */
+    private Typeface m_sampleTypeface;
+
+    /**
+     * true if m_sample was chosen at all (m_sampleTypeface can be null).
+     */
+    private boolean m_sampleValid;
+
+    /**
+     * The cached results, most recently used first. Entries from 0 to
+     * m_cacheUsed-1 are valid.
+     */
+    private final int[] m_cacheWidth = new int[CACHE_SIZE];
+    private final int[] m_cacheHeight = new int[CACHE_SIZE];
+    private final int[] m_cacheChars = new int[CACHE_SIZE];
+    private final Typeface[] m_cacheTypeface = new Typeface[CACHE_SIZE];
+    private final float[] m_cacheSize = new float[CACHE_SIZE];
+    private int m_cacheUsed;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Get the largest text size (in pixels) at which the given number of
+     * digits fit in a box of the given size.
+     *
+     * @param width The box width, in pixels.
+     * @param height The box height, in pixels.
+     * @param chars The number of digits.
+     * @param typeface The typeface used (null for the default one).
+     */
+    public float getFittingSize(int width, int height, int chars,
+                                Typeface typeface)
+    {
+        if (chars > m_sample.length)
+            chars = m_sample.length;
+        for (int i = 0; i < m_cacheUsed; i++)
+        {
+            if (m_cacheWidth[i] == width && m_cacheHeight[i] == height &&
+                m_cacheChars[i] == chars && m_cacheTypeface[i] == typeface)
+            {
+                float size = m_cacheSize[i];
+                moveToFront(i);
+                return size;
+            }
+        }
+
+        float size = measureFittingSize(width, height, chars, typeface);
+        int last = Math.min(m_cacheUsed, CACHE_SIZE - 1);
+        m_cacheWidth[last] = width;
+        m_cacheHeight[last] = height;
+        m_cacheChars[last] = chars;
+        m_cacheTypeface[last] = typeface;
+        m_cacheSize[last] = size;
+        if (m_cacheUsed < CACHE_SIZE)
+            m_cacheUsed++;
+        moveToFront(last);
+        return size;
+    }
+
+    /**
+     * Binary search for the largest integer text size that fits.
+     */
+    private float measureFittingSize(int width, int height, int chars,
+                                     Typeface typeface)
+    {
+        if (width <= 0 || height <= 0 || chars <= 0)
+            return 1;
+        m_paint.setTypeface(typeface);
+        chooseSample(typeface);
+
+        int low = 1;       // Assumed to fit.
+        int high = height; // Font height is never less than the text size.
+        while (low < high)
+        {
+            int size = (low + high + 1) / 2;
+            m_paint.setTextSize(size);
+            float textWidth = m_paint.measureText(m_sample, 0, chars);
+            float textHeight = m_paint.descent() - m_paint.ascent();
+            if (textWidth <= width && textHeight <= height)
+                low = size;
+            else
+                high = size - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Fill the sample text with the widest digit of the given typeface.
+     */
+    private void chooseSample(Typeface typeface)
+    {
+        if (m_sampleValid && m_sampleTypeface == typeface)
+            return;
+        char widest = DIGITS.charAt(0);
+        float widestWidth = 0;
+        for (int i = 0; i < DIGITS.length(); i++)
+        {
+            float width = m_paint.measureText(DIGITS, i, i + 1);
+            if (width > widestWidth)
+            {
+                widestWidth = width;
+                widest = DIGITS.charAt(i);
+            }
+        }
+        for (int i = 0; i < m_sample.length; i++)
+            m_sample[i] = widest;
+        m_sampleTypeface = typeface;
+        m_sampleValid = true;
+    }
+
+    /**
+     * Move the given cache entry to the front of the cache.
+     */
+    private void moveToFront(int index)
+    {
+        int width = m_cacheWidth[index];
+        int height = m_cacheHeight[index];
+        int chars = m_cacheChars[index];
+        Typeface typeface = m_cacheTypeface[index];
+        float size = m_cacheSize[index];
+        for (int i = index; i > 0; i--)
+        {
+            m_cacheWidth[i] = m_cacheWidth[i - 1];
+            m_cacheHeight[i] = m_cacheHeight[i - 1];
+            m_cacheChars[i] = m_cacheChars[i - 1];
+            m_cacheTypeface[i] = m_cacheTypeface[i - 1];
+            m_cacheSize[i] = m_cacheSize[i - 1];
+        }
+        m_cacheWidth[0] = width;
+        m_cacheHeight[0] = height;
+        m_cacheChars[0] = chars;
+        m_cacheTypeface[0] = typeface;
+        m_cacheSize[0] = size;
+    }
+}
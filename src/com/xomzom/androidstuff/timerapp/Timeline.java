@@ -0,0 +1,416 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An immutable, precompiled session timeline: the segments of a session
+ * (e.g. the countdown, then the intervals, or the segments of a Program),
+ * with their boundaries in milliseconds from the start of the session, and
+ * the cue to play at the end of each one.
+ * The timeline is stored compactly as runs of equal segments, and
+ * segment boundaries are computed from the runs when asked for, so a session
+ * of equal intervals takes the same (constant) memory whatever the number of
+ * intervals. Any point in the session maps to its segment without stepping
+ * through the segments before it.
+ * All times are 64 bit milliseconds. Times that don't fit in a long (which
+ * the settings allow, but which are hundreds of millions of years away) are
+ * saturated to Long.MAX_VALUE.
+ *
+ * @author dedi
+ */
+public final class Timeline
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The length of each segment in each run, in milliseconds.
+     */
+    private final long[] m_runSegmentLengths;
+
+    /**
+     * The number of segments in each run.
+     */
+    private final long[] m_runSegmentCounts;
+
+    /**
+     * The cue played at the end of the segments of each run (one of the
+     * Program.CUE_ constants).
+     */
+    private final int[] m_runCues;
+
+    /**
+     * The index of the first segment of each run.
+     */
+    private final long[] m_runFirstSegments;
+
+    /**
+     * The start time of each run, in milliseconds from the session start.
+     */
+    private final long[] m_runStarts;
+
+    /**
+     * The total number of segments.
+     */
+    private final long m_segmentCount;
+
+    /**
+     * The total length of the session, in milliseconds.
+     */
+    private final long m_totalLength;
+
+    /**
+     * The interval number of the first segment: 0 if it is a countdown, 1 if
+     * the session starts with the first interval.
+     */
+    private final long m_firstIntervalNumber;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a timeline from runs of equal segments. Adjacent runs with the
+     * same segment length and cue are merged, and empty runs are dropped.
+     *
+     * @param segmentLengths The length of the segments of each run, in
+     * milliseconds.
+     * @param segmentCounts The number of segments in each run.
+     * @param segmentCues The cue of the segments of each run.
+     * @param firstIntervalNumber The interval number of the first segment
+     * (0 if it's a countdown).
+     */
+    public Timeline(long[] segmentLengths, long[] segmentCounts,
+                    int[] segmentCues, long firstIntervalNumber)
+    {
+        int runs = 0;
+        long[] lengths = new long[segmentLengths.length];
+        long[] counts = new long[segmentLengths.length];
+        int[] cues = new int[segmentLengths.length];
+        for (int i = 0; i < segmentLengths.length; i++)
+        {
+            if (segmentCounts[i] <= 0)
+                continue;
+            if (runs > 0 && lengths[runs - 1] == segmentLengths[i] &&
+                cues[runs - 1] == segmentCues[i])
+            {
+                counts[runs - 1] =
+                    saturatedAdd(counts[runs - 1], segmentCounts[i]);
+                continue;
+            }
+            lengths[runs] = segmentLengths[i];
+            counts[runs] = segmentCounts[i];
+            cues[runs] = segmentCues[i];
+            runs++;
+        }
+
+        m_runSegmentLengths = new long[runs];
+        m_runSegmentCounts = new long[runs];
+        m_runCues = new int[runs];
+        m_runFirstSegments = new long[runs];
+        m_runStarts = new long[runs];
+        long segment = 0;
+        long time = 0;
+        for (int i = 0; i < runs; i++)
+        {
+            m_runSegmentLengths[i] = lengths[i];
+            m_runSegmentCounts[i] = counts[i];
+            m_runCues[i] = cues[i];
+            m_runFirstSegments[i] = segment;
+            m_runStarts[i] = time;
+            segment += counts[i];
+            time = saturatedAdd(time, saturatedMultiply(lengths[i], counts[i]));
+        }
+        m_segmentCount = segment;
+        m_totalLength = time;
+        m_firstIntervalNumber = firstIntervalNumber;
+    }
+
+    /**
+     * Compile the timeline of a session: a countdown (skipped if 0 length)
+     * followed by a number of equal intervals.
+     *
+     * @param countdown The countdown length, in seconds.
+     * @param intervalLength The interval length, in seconds.
+     * @param numIntervals The number of intervals.
+     */
+    public static Timeline forIntervals(int countdown, int intervalLength,
+                                        int numIntervals)
+    {
+        long[] lengths = { (long)countdown * MILLIS_IN_SECOND,
+                           (long)intervalLength * MILLIS_IN_SECOND };
+        long[] counts = { (countdown == 0 ? 0 : 1), numIntervals };
+        int[] cues = { Program.CUE_RINGTONE, Program.CUE_RINGTONE };
+        return new Timeline(lengths, counts, cues, (countdown == 0 ? 1 : 0));
+    }
+
+    /**
+     * Get a timeline that is the same as this one up to (and including) the
+     * given segment, and continues with all the segments of the given tail
+     * timeline. Used to re-plan the rest of a running session.
+     */
+    public Timeline replaceAfter(long segment, Timeline tail)
+    {
+        int keptRuns = findRunOfSegment(segment) + 1;
+        int tailRuns = tail.m_runSegmentLengths.length;
+        long[] lengths = new long[keptRuns + tailRuns];
+        long[] counts = new long[keptRuns + tailRuns];
+        int[] cues = new int[keptRuns + tailRuns];
+        System.arraycopy(m_runSegmentLengths, 0, lengths, 0, keptRuns);
+        System.arraycopy(m_runSegmentCounts, 0, counts, 0, keptRuns);
+        System.arraycopy(m_runCues, 0, cues, 0, keptRuns);
+        counts[keptRuns - 1] = segment - m_runFirstSegments[keptRuns - 1] + 1;
+        System.arraycopy(tail.m_runSegmentLengths, 0, lengths, keptRuns,
+                         tailRuns);
+        System.arraycopy(tail.m_runSegmentCounts, 0, counts, keptRuns,
+                         tailRuns);
+        System.arraycopy(tail.m_runCues, 0, cues, keptRuns, tailRuns);
+        return new Timeline(lengths, counts, cues, m_firstIntervalNumber);
+    }
+
+    /**
+     * Get the number of segments.
+     */
+    public long getSegmentCount()
+    {
+        return m_segmentCount;
+    }
+
+    /**
+     * Get the total length of the session, in milliseconds.
+     */
+    public long getTotalLength()
+    {
+        return m_totalLength;
+    }
+
+    /**
+     * Get the start of the given segment, in milliseconds from the session
+     * start.
+     */
+    public long getSegmentStart(long segment)
+    {
+        int run = findRunOfSegment(segment);
+        long index = segment - m_runFirstSegments[run];
+        return saturatedAdd(m_runStarts[run],
+                saturatedMultiply(index, m_runSegmentLengths[run]));
+    }
+
+    /**
+     * Get the end of the given segment, in milliseconds from the session
+     * start.
+     */
+    public long getSegmentEnd(long segment)
+    {
+        return saturatedAdd(getSegmentStart(segment),
+                getSegmentLength(segment));
+    }
+
+    /**
+     * Get the length of the given segment, in milliseconds.
+     */
+    public long getSegmentLength(long segment)
+    {
+        return m_runSegmentLengths[findRunOfSegment(segment)];
+    }
+
+    /**
+     * Get the cue to play at the end of the given segment (one of the
+     * Program.CUE_ constants).
+     */
+    public int getSegmentCue(long segment)
+    {
+        return m_runCues[findRunOfSegment(segment)];
+    }
+
+    /**
+     * Get the interval number of the given segment, as displayed to the user:
+     * 0 for the countdown, 1 for the first interval, and so on.
+     */
+    public long getIntervalNumber(long segment)
+    {
+        return segment + m_firstIntervalNumber;
+    }
+
+    /**
+     * Find the segment running at the given time, in O(log(runs)).
+     *
+     * @param elapsed The time, in milliseconds from the session start.
+     * @return The index of the segment, which is the first one that ends
+     * after the given time, or getSegmentCount() if the session is over by
+     * then.
+     */
+    public long findSegment(long elapsed)
+    {
+        if (elapsed >= m_totalLength)
+            return m_segmentCount;
+
+        // Find the last run that starts at or before the given time and
+        // isn't empty.
+        int low = 0;
+        int high = m_runStarts.length - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (m_runStarts[middle] <= elapsed)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        while (m_runSegmentLengths[low] == 0)
+            low++;
+
+        long index = (elapsed - m_runStarts[low]) / m_runSegmentLengths[low];
+        return m_runFirstSegments[low] + index;
+    }
+
+    /**
+     * Find the first segment, starting at the given one, whose end has a cue;
+     * or the last segment, if none of them does. Those are the boundaries
+     * that need attention when they're reached.
+     */
+    public long findCueSegment(long segment)
+    {
+        for (int run = findRunOfSegment(segment); run < m_runCues.length;
+             run++)
+        {
+            if (m_runCues[run] != Program.CUE_NONE)
+                return Math.max(segment, m_runFirstSegments[run]);
+        }
+        return getSegmentCount() - 1;
+    }
+
+    /**
+     * Write the segments from the given one on to the given stream, as a
+     * timeline of its own whose first segment is the given one (with the same
+     * interval number). Format (as written by DataOutput):
+     * <pre>
+     *   long    interval number of the first segment
+     *   int     number of runs
+     *   per run:
+     *     long  segment length (milliseconds)
+     *     long  number of segments
+     *     byte  cue
+     * </pre>
+     */
+    public void write(DataOutput out, long fromSegment) throws IOException
+    {
+        int firstRun = findRunOfSegment(fromSegment);
+        out.writeLong(getIntervalNumber(fromSegment));
+        out.writeInt(m_runSegmentLengths.length - firstRun);
+        for (int run = firstRun; run < m_runSegmentLengths.length; run++)
+        {
+            long count = m_runSegmentCounts[run];
+            if (run == firstRun)
+                count -= fromSegment - m_runFirstSegments[run];
+            out.writeLong(m_runSegmentLengths[run]);
+            out.writeLong(count);
+            out.writeByte(m_runCues[run]);
+        }
+    }
+
+    /**
+     * Read a timeline written by write().
+     *
+     * @throws IOException if the stream can't be read, or doesn't hold a
+     * valid timeline.
+     */
+    public static Timeline read(DataInput in) throws IOException
+    {
+        long firstIntervalNumber = in.readLong();
+        int runs = in.readInt();
+        if (runs < 0 || runs > Program.MAX_RUNS)
+            throw new IOException("Bad timeline run count " + runs);
+        long[] lengths = new long[runs];
+        long[] counts = new long[runs];
+        int[] cues = new int[runs];
+        for (int i = 0; i < runs; i++)
+        {
+            lengths[i] = in.readLong();
+            counts[i] = in.readLong();
+            cues[i] = in.readByte();
+            if (lengths[i] < 0 || counts[i] < 0 || !Program.isCue(cues[i]))
+                throw new IOException("Bad timeline run " + i);
+        }
+        return new Timeline(lengths, counts, cues, firstIntervalNumber);
+    }
+
+    /**
+     * Find the run the given segment is in.
+     */
+    private int findRunOfSegment(long segment)
+    {
+        int low = 0;
+        int high = m_runFirstSegments.length - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (m_runFirstSegments[middle] <= segment)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Add two non-negative values, saturating to Long.MAX_VALUE.
+     */
+    static long saturatedAdd(long a, long b)
+    {
+        long sum = a + b;
+        return (sum < 0 ? Long.MAX_VALUE : sum);
+    }
+
+    /**
+     * Multiply two non-negative values, saturating to Long.MAX_VALUE.
+     */
+    static long saturatedMultiply(long a, long b)
+    {
+        if (a != 0 && b > Long.MAX_VALUE / a)
+            return Long.MAX_VALUE;
+        return a * b;
+    }
+}
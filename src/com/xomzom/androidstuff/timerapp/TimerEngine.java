@@ -0,0 +1,560 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+/**
+ * The timing logic of the pause-able countdown timer, which counts down the
+ * segments of a Timeline (e.g. a countdown followed by a number of
+ * intervals). This is plain Java: the time comes from a Clock, and the tick
+ * loop runs on a Scheduler, both given by the caller. PausableTimer runs it
+ * on Android; a virtual clock and scheduler can run it much faster than
+ * real time.
+ * All segment boundaries are absolute deadlines on the (monotonic) clock,
+ * looked up in the timeline, and a single tick loop is reused for the whole
+ * sequence. A late callback therefore only delays that callback, and never
+ * pushes the following boundaries back.
+ * Pausing is accurate to the millisecond: when resumed, the timer goes on
+ * with exactly the time that was left when it was paused.
+ * The timer ticks once a second, right as the displayed seconds value
+ * changes. Displays that show fractions of a second redraw on their own
+ * frame clock (see FrameTicker), asking for the remaining time.
+ * Ticks are only for displaying the time, and can be turned off (e.g. while
+ * nothing is visible); the timer then only wakes up at the segment
+ * boundaries, which are delivered either way.
+ *
+ * @author dedi
+ */
+public class TimerEngine
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+    /**
+     * The longest time (in milliseconds) to wait for a boundary in one go
+     * while ticks are off, so the delay never overflows the scheduler's
+     * clock.
+     */
+    private final static long MAX_IDLE_DELAY = 60 * 60 * 1000;
+
+
+    //
+    // Types.
+    //
+
+    /**
+     * The source of the current time.
+     */
+    public interface Clock
+    {
+        /**
+         * Get the current time, in milliseconds. Must never go back.
+         */
+        long now();
+    }
+
+    /**
+     * Runs the tick loop.
+     */
+    public interface Scheduler
+    {
+        /**
+         * Run the given task once, after the given delay (in milliseconds).
+         */
+        void schedule(Runnable task, long delay);
+
+        /**
+         * Cancel all the scheduled runs of the given task.
+         */
+        void cancel(Runnable task);
+    }
+
+
+    //
+    // Members
+    //
+
+    /**
+     * Our listener object.
+     */
+    private PausableTimerListener m_listener;
+
+    /**
+     * The clock all times are measured on.
+     */
+    private final Clock m_clock;
+
+    /**
+     * The scheduler the tick loop runs on.
+     */
+    private final Scheduler m_scheduler;
+
+    /**
+     * The tick loop. The same runnable is re-posted for every tick of every
+     * segment.
+     */
+    private Runnable m_tickRunnable;
+
+    /**
+     * The timeline being counted down, measured from m_baseTime. Will be
+     * null if no sequence was started.
+     */
+    private Timeline m_timeline;
+
+    /**
+     * The absolute time (on the clock) the sequence is measured from. Moved
+     * forward when the timer is resumed after a pause.
+     */
+    private long m_baseTime;
+
+    /**
+     * The index of the segment currently counting down.
+     */
+    private long m_currentSegment;
+
+    /**
+     * true if ticks are delivered to the listener.
+     */
+    private boolean m_ticksEnabled = true;
+
+    /**
+     * true if the tick loop is currently running.
+     */
+    private boolean m_running;
+
+    /**
+     * The absolute time (on the clock) the timer was paused at. Only
+     * meaningful while the timer is started but not running.
+     */
+    private long m_pausedAt;
+
+    /**
+     * The sum of how late each segment boundary was delivered, in
+     * milliseconds.
+     */
+    private long m_accumulatedDrift;
+
+    /**
+     * The absolute time (on the clock) the last segment boundary was due.
+     */
+    private long m_lastBoundaryDeadline;
+
+    /**
+     * The absolute time (on the clock) the tick loop was last scheduled for.
+     */
+    private long m_tickDue;
+
+    /**
+     * How late the tick loop is run by the scheduler, in milliseconds.
+     */
+    private final LatencyHistogram m_tickLateness = new LatencyHistogram();
+
+    /**
+     * How late the segment boundaries are delivered, in milliseconds.
+     */
+    private final LatencyHistogram m_boundaryLateness =
+        new LatencyHistogram();
+
+    /**
+     * The tracer the timer's events are recorded to, or null if none is.
+     */
+    private Tracer m_tracer;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a new timer, associated with the given listener. All the
+     * listener events are delivered from the scheduler's tasks, or from the
+     * calls to the timer itself.
+     */
+    public TimerEngine(PausableTimerListener listener, Clock clock,
+                       Scheduler scheduler)
+    {
+        m_listener = listener;
+        m_clock = clock;
+        m_scheduler = scheduler;
+        m_tickRunnable = new Runnable() {
+            @Override
+            public void run()
+            {
+                m_tickLateness.record(m_clock.now() - m_tickDue);
+                onTick();
+            }
+        };
+    }
+
+    /**
+     * Set the tracer to record the ticks and boundaries to, or null for none.
+     */
+    public void setTracer(Tracer tracer)
+    {
+        m_tracer = tracer;
+    }
+
+    /**
+     * Turn the ticks on or off. Segment boundaries are delivered either way.
+     * When ticks are turned back on, a tick with the current value is
+     * delivered right away (if the timer is started, even if it's paused).
+     */
+    public void setTicksEnabled(boolean enabled)
+    {
+        if (enabled == m_ticksEnabled)
+            return;
+        m_ticksEnabled = enabled;
+        if (!enabled || m_timeline == null)
+            return;
+        if (m_running)
+        {
+            m_scheduler.cancel(m_tickRunnable);
+            onTick();
+        }
+        else
+            m_listener.onTimerTick(toSeconds(getMillisRemaining()));
+    }
+
+    /**
+     * Start a timer that will count down the segments of the given timeline
+     * one after the other, raising an 'interval finished' event at the end of
+     * each one. This will cancel any currently running or paused timer.
+     * A first tick, with the length of the first segment, is raised
+     * immediately.
+     */
+    public void start(Timeline timeline)
+    {
+        start(timeline, 0);
+    }
+
+    /**
+     * Start a timer on the given timeline, as if it was started the given
+     * number of milliseconds ago. No 'interval finished' events are raised
+     * for the segments that are already over by then.
+     */
+    public void start(Timeline timeline, long elapsed)
+    {
+        stop();
+
+        m_timeline = timeline;
+        m_currentSegment = timeline.findSegment(elapsed);
+        m_accumulatedDrift = 0;
+        m_baseTime = m_clock.now() - elapsed;
+        if (m_currentSegment >= timeline.getSegmentCount())
+        {
+            m_timeline = null;
+            return;
+        }
+        m_running = true;
+        onTick();
+    }
+
+    /**
+     * Replace the timeline of a started timer, keeping the current position
+     * in it. The new timeline must be the same as the old one up to the end of
+     * the current segment. Does nothing if the timer was not started.
+     */
+    public void setTimeline(Timeline timeline)
+    {
+        if (m_timeline == null)
+            return;
+        m_timeline = timeline;
+        if (m_running)
+        {
+            m_scheduler.cancel(m_tickRunnable);
+            onTick();
+        }
+    }
+
+    /**
+     * Pause the timer.
+     */
+    public void pause()
+    {
+        if (!m_running)
+            return;
+        m_scheduler.cancel(m_tickRunnable);
+        // A boundary may already be due, if its tick is late; deliver it now,
+        // rather than holding it back until we're resumed.
+        long now = m_clock.now();
+        if (!deliverBoundaries(now))
+            return;
+        m_pausedAt = now;
+        m_running = false;
+    }
+
+    /**
+     * Resume the timer.
+     */
+    public void resume()
+    {
+        if (m_running || m_timeline == null)
+            return;
+        // Move the whole sequence forward by the time we were paused.
+        m_baseTime += m_clock.now() - m_pausedAt;
+        m_running = true;
+        onTick();
+    }
+
+    /**
+     * Tick right away rather than when the next tick is due, delivering any
+     * segment boundary that was reached (e.g. after being woken up by an
+     * alarm). Does nothing if the timer is not running.
+     */
+    public void tick()
+    {
+        if (!m_running)
+            return;
+        m_scheduler.cancel(m_tickRunnable);
+        onTick();
+    }
+
+    /**
+     * Cancel a running timer.
+     */
+    public void stop()
+    {
+        m_scheduler.cancel(m_tickRunnable);
+        m_running = false;
+        m_timeline = null;
+    }
+
+    /**
+     * Check if a sequence was started, and has not finished or been stopped
+     * yet. A paused timer is still started.
+     */
+    public boolean isStarted()
+    {
+        return m_timeline != null;
+    }
+
+    /**
+     * Get the timeline being counted down, or null if the timer was not
+     * started.
+     */
+    public Timeline getTimeline()
+    {
+        return m_timeline;
+    }
+
+    /**
+     * Get the index (in the timeline) of the segment currently counting down.
+     */
+    public long getCurrentSegment()
+    {
+        return m_currentSegment;
+    }
+
+    /**
+     * Get the number of milliseconds since the start of the timeline,
+     * not counting pauses, or 0 if the timer was not started.
+     */
+    public long getElapsed()
+    {
+        if (m_timeline == null)
+            return 0;
+        long now = (m_running ? m_clock.now() : m_pausedAt);
+        return now - m_baseTime;
+    }
+
+    /**
+     * Get the number of milliseconds left in the current segment, or 0 if the
+     * timer was not started.
+     */
+    public long getMillisRemaining()
+    {
+        return getMillisRemaining(m_clock.now());
+    }
+
+    /**
+     * Get the number of milliseconds left in the current segment at the given
+     * time (on the clock), or 0 if the timer was not started. Until the
+     * segment's boundary is delivered, the time left after its deadline is 0.
+     */
+    public long getMillisRemaining(long now)
+    {
+        if (m_timeline == null)
+            return 0;
+        long elapsed = (m_running ? now : m_pausedAt) - m_baseTime;
+        long remaining = m_timeline.getSegmentEnd(m_currentSegment) - elapsed;
+        return Math.max(remaining, 0);
+    }
+
+    /**
+     * Get the absolute time (on the clock) the given segment ends at, as
+     * currently planned. Only meaningful while the timer is running, since
+     * pausing moves the deadlines.
+     */
+    public long getSegmentDeadline(long segment)
+    {
+        return m_baseTime + m_timeline.getSegmentEnd(segment);
+    }
+
+    /**
+     * Get the absolute time (on the clock) the last segment boundary was
+     * due. During an 'interval finished' event, this is the boundary being
+     * delivered.
+     */
+    public long getLastBoundaryDeadline()
+    {
+        return m_lastBoundaryDeadline;
+    }
+
+    /**
+     * Get the sum of how late (in milliseconds) each segment boundary was
+     * delivered since the timer was started. Since the boundaries are
+     * absolute, this lateness is not added to the length of the sequence.
+     */
+    public long getAccumulatedDrift()
+    {
+        return m_accumulatedDrift;
+    }
+
+    /**
+     * Get the histogram of how late (in milliseconds) the scheduler ran the
+     * tick loop, over the timer's lifetime (not just the current sequence).
+     * Ticks requested through tick() are not included.
+     */
+    public LatencyHistogram getTickLateness()
+    {
+        return m_tickLateness;
+    }
+
+    /**
+     * Get the histogram of how late (in milliseconds) the segment boundaries
+     * were delivered, over the timer's lifetime.
+     */
+    public LatencyHistogram getBoundaryLateness()
+    {
+        return m_boundaryLateness;
+    }
+
+    /**
+     * A timer tick event. Deliver any segment boundary that was reached, then
+     * the current seconds value, and schedule the next tick.
+     */
+    protected void onTick()
+    {
+        long now = m_clock.now();
+        if (!deliverBoundaries(now))
+            return;
+        long deadline = m_baseTime + m_timeline.getSegmentEnd(m_currentSegment);
+        long millisUntilFinished = deadline - now;
+        if (m_tracer != null)
+        {
+            m_tracer.record(Tracer.EVENT_TICK, m_currentSegment,
+                            millisUntilFinished);
+        }
+        if (!m_ticksEnabled)
+        {
+            // Just wait for the boundary.
+            scheduleTick(now, Math.min(millisUntilFinished, MAX_IDLE_DELAY));
+            return;
+        }
+
+        // Ticks are aligned to the second boundaries before the deadline, so
+        // rounding up gives the second that has just started.
+        m_listener.onTimerTick(toSeconds(millisUntilFinished));
+
+        // Keep the ticks in phase with the deadline, whenever we were called.
+        long nextTickRemaining =
+            ((millisUntilFinished - 1) / MILLIS_IN_SECOND) * MILLIS_IN_SECOND;
+        long nextTick = deadline - nextTickRemaining;
+        scheduleTick(now, nextTick - now);
+    }
+
+    /**
+     * Convert a remaining time to the seconds value displayed, rounding up.
+     */
+    private static int toSeconds(long millisRemaining)
+    {
+        long seconds = millisRemaining / MILLIS_IN_SECOND;
+        if (millisRemaining % MILLIS_IN_SECOND > 0)
+            seconds++;
+        return (int)Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Schedule the tick loop to run after the given delay.
+     */
+    private void scheduleTick(long now, long delay)
+    {
+        m_tickDue = now + delay;
+        m_scheduler.schedule(m_tickRunnable, delay);
+    }
+
+    /**
+     * Deliver any segment boundary that was reached by the given time.
+     *
+     * @return false if the timer was stopped, paused or restarted by the
+     *         listener meanwhile.
+     */
+    private boolean deliverBoundaries(long now)
+    {
+        Timeline timeline = m_timeline;
+        long segment = timeline.findSegment(now - m_baseTime);
+        while (m_currentSegment < segment)
+        {
+            long deadline =
+                m_baseTime + timeline.getSegmentEnd(m_currentSegment);
+            m_lastBoundaryDeadline = deadline;
+            onSegmentFinished(now - deadline);
+            // The listener may have stopped, paused or restarted us.
+            if (!m_running || m_timeline != timeline)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A 'segment expired' event.
+     *
+     * @param lateness How late (in milliseconds) the event is delivered.
+     */
+    protected void onSegmentFinished(long lateness)
+    {
+        if (m_tracer != null)
+            m_tracer.record(Tracer.EVENT_BOUNDARY, m_currentSegment, lateness);
+        m_accumulatedDrift += lateness;
+        m_boundaryLateness.record(lateness);
+        m_currentSegment++;
+        if (m_currentSegment >= m_timeline.getSegmentCount())
+        {
+            if (m_tracer != null)
+                m_tracer.record(Tracer.EVENT_FINISHED, m_accumulatedDrift, 0);
+            stop();
+        }
+        m_listener.onIntervalFinished();
+    }
+}
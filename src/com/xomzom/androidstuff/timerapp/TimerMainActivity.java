@@ -29,145 +29,320 @@
 package com.xomzom.androidstuff.timerapp;
 
 import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.content.ServiceConnection;
 import android.media.AudioManager;
-import android.media.Ringtone;
-import android.media.RingtoneManager;
-import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
-import android.util.Log;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.View.OnLongClickListener;
 import android.widget.Button;
 import android.widget.TextView;
 
 /**
- * The timer activity of the timer application.
- * TODO: Figure life-cycle, and make sure cleanup is done in the right place.
+ * The timer activity of the timer application. The session itself runs in
+ * the TimerService; this activity binds to it, shows its state and passes
+ * the user's requests on to it.
+ * The binding to the service is retained when the activity is recreated for
+ * a configuration change (e.g. rotation), so the new activity re-attaches to
+ * the running session right away, with nothing to rebuild.
+ * Whole seconds are displayed from the service's ticks. When the time is
+ * displayed with fractions of a second, it's rendered on every display frame
+ * instead, computed from the deadline for the frame's time.
+ * The rest of the session views are driven by a table of the controls shown
+ * in each state: on every change, the view state to show is computed, and
+ * only the views that differ from what's shown are updated.
  *
  * @author dedi
  */
 public class TimerMainActivity extends Activity
-    implements OnSharedPreferenceChangeListener, PausableTimerListener
+    implements TimerService.Listener, FrameTicker.Listener
 {
     //
     // Constants.
     //
 
     /**
-     * The various timer states.
+     * The most decimal places the time can be displayed with.
      */
-    enum TimerState {
-        READY,   // Ready to run. Valid next state: Running.
-        RUNNING, // Running. Valid next steps: Ready (if stopped), paused
-        PAUSED,  // Paused. Valid next steps: Running, Ready (if stopped).
-    }
+    private final static int MAX_DISPLAY_DECIMALS = 3;
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+    /**
+     * The session controls, each a button and an options menu item, by
+     * their index in the control tables.
+     */
+    private final static int CONTROL_START = 0;
+    private final static int CONTROL_PAUSE = 1;
+    private final static int CONTROL_RESUME = 2;
+    private final static int CONTROL_STOP = 3;
+    private final static int CONTROL_COUNT = 4;
+
+    /**
+     * The bits of all the controls, in a set of controls.
+     */
+    private final static int ALL_CONTROLS = (1 << CONTROL_COUNT) - 1;
+
+    /**
+     * The 'not shown yet' set of controls.
+     */
+    private final static int CONTROLS_UNKNOWN = -1;
+
+    /**
+     * The button IDs of the controls, by control index.
+     */
+    private final static int[] CONTROL_BUTTON_IDS = {
+        R.id.start_button, R.id.pause_button, R.id.resume_button,
+        R.id.stop_button
+    };
+
+    /**
+     * The menu item IDs of the controls, by control index.
+     */
+    private final static int[] CONTROL_MENU_IDS = {
+        R.id.menu_start, R.id.menu_pause, R.id.menu_resume, R.id.menu_stop
+    };
+
+    /**
+     * The set of controls (a bit per control index) shown in each timer
+     * state, in TimerState order.
+     */
+    private final static int[] STATE_CONTROLS = {
+        1 << CONTROL_START,                             // READY
+        (1 << CONTROL_PAUSE) | (1 << CONTROL_STOP),     // RUNNING
+        (1 << CONTROL_RESUME) | (1 << CONTROL_STOP),    // PAUSED
+    };
 
 
     //
-    // Members.
+    // Types.
     //
 
     /**
-     * The current timer state.
+     * The binding to the timer service. It's made with the application
+     * context, and is retained across configuration changes; an activity
+     * attaches to it when created, and detaches when destroyed, so it never
+     * references a destroyed activity.
      */
-    private TimerState m_state = TimerState.READY;
+    private static class ServiceBinding implements ServiceConnection
+    {
+        /**
+         * The (application) context the service is bound with.
+         */
+        private final Context m_context;
+
+        /**
+         * The timer service, or null until it's connected.
+         */
+        private TimerService m_service;
+
+        /**
+         * The attached activity, or null if none is.
+         */
+        private TimerMainActivity m_activity;
+
+        /**
+         * Bind to the timer service.
+         */
+        ServiceBinding(Context context)
+        {
+            m_context = context.getApplicationContext();
+            m_context.bindService(new Intent(m_context, TimerService.class),
+                    this, Context.BIND_AUTO_CREATE);
+        }
+
+        /**
+         * Attach the given activity. If the service is already connected,
+         * the activity gets it right away.
+         */
+        void attach(TimerMainActivity activity)
+        {
+            m_activity = activity;
+            if (m_service != null)
+                m_activity.onServiceAttached(m_service);
+        }
+
+        /**
+         * Detach the attached activity, keeping the service bound.
+         */
+        void detach()
+        {
+            if (m_service != null)
+                m_service.setListener(null);
+            m_activity = null;
+        }
+
+        /**
+         * Detach the attached activity, and unbind from the service.
+         */
+        void unbind()
+        {
+            detach();
+            m_context.unbindService(this);
+            m_service = null;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder)
+        {
+            m_service = ((TimerService.LocalBinder)binder).getService();
+            if (m_activity != null)
+                m_activity.onServiceAttached(m_service);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name)
+        {
+            m_service = null;
+            if (m_activity != null)
+                m_activity.onServiceDetached();
+        }
+    }
+
+    /**
+     * What the session views show: the controls, the title and state
+     * messages, and whether the screen is kept on.
+     */
+    private static class ViewState
+    {
+        /**
+         * The set of controls shown (a bit per control index), or
+         * CONTROLS_UNKNOWN if nothing was shown yet.
+         */
+        int controls = CONTROLS_UNKNOWN;
+
+        /**
+         * The title and state messages, or null if nothing was shown yet.
+         */
+        String title;
+        String state;
+
+        /**
+         * true if the screen is kept on.
+         */
+        boolean keepScreenOn;
+
+        /**
+         * Make this the same as the given view state.
+         */
+        void copyFrom(ViewState other)
+        {
+            controls = other.controls;
+            title = other.title;
+            state = other.state;
+            keepScreenOn = other.keepScreenOn;
+        }
+    }
+
+
+    //
+    // Members.
+    //
 
     /**
-     * The number of intervals.
+     * The binding to the timer service.
      */
-    private int m_numIntervals;
+    private ServiceBinding m_binding;
 
     /**
-     * The interval length.
+     * true if the binding is being retained for the next instance (i.e. we're
+     * being destroyed for a configuration change).
      */
-    private int m_intervalLength;
+    private boolean m_retainingBinding;
 
     /**
-     * The countdown before the first interval.
+     * The timer service, or null until we're attached to it.
      */
-    private int m_countdown;
+    private TimerService m_service;
 
     /**
-     * The current interval number.
+     * true between onResume() and onPause(), when the time is visible.
      */
-    private int m_currentInterval;
+    private boolean m_resumed;
 
     /**
      * A reference to the time view.
      */
-    private TextView m_chronometer;
+    private ChronoView m_chronometer;
 
     /**
-     * The 'start timer' menu item.
+     * The buffer the ticks are formatted into.
      */
-    private MenuItem m_startMenuItem;
+    private final char[] m_tickChars = new char[DigitFormatter.MAX_CHARS];
 
     /**
-     * The 'pause timer' menu item.
+     * The seconds value currently displayed, or -1 if nothing is.
      */
-    private MenuItem m_pauseMenuItem;
+    private int m_displayedSeconds = -1;
 
     /**
-     * The 'resume timer' menu item.
+     * The fractional value currently displayed (in units of its last decimal
+     * place), or -1 if the time is displayed in whole seconds.
      */
-    private MenuItem m_resumeMenuItem;
+    private long m_displayedFraction = -1;
 
     /**
-     * The 'stop timer' menu item.
+     * The number of decimal places of m_displayedFraction.
      */
-    private MenuItem m_stopMenuItem;
+    private int m_displayedDecimals;
 
     /**
-     * The 'start timer' button.
+     * Delivers the display frames, when the time is displayed with fractions
+     * of a second.
      */
-    private Button m_startButton;
+    private FrameTicker m_frameTicker;
 
     /**
-     * The 'pause timer' button.
+     * The control buttons, by control index.
      */
-    private Button m_pauseButton;
+    private final Button[] m_buttons = new Button[CONTROL_COUNT];
 
     /**
-     * The 'resume timer' button.
+     * The control menu items, by control index, or null until the options
+     * menu is created.
      */
-    private Button m_resumeButton;
+    private MenuItem[] m_menuItems;
 
     /**
-     * The 'stop timer' button.
+     * The controls the menu items currently show, or CONTROLS_UNKNOWN.
      */
-    private Button m_stopButton;
+    private int m_menuControls = CONTROLS_UNKNOWN;
 
     /**
-     * The title textview.
+     * What the session views should show, computed on every change.
      */
-    private TextView m_titleView;
+    private final ViewState m_targetViewState = new ViewState();
 
     /**
-     * The state textview.
+     * What the session views currently show.
      */
-    private TextView m_stateView;
+    private final ViewState m_shownViewState = new ViewState();
 
     /**
-     * The 'prevent screen locking' flag.
+     * The 'ready' state message, shown until we're attached to the service.
      */
-    private boolean m_preventLocking;
+    private String m_readyMessage;
 
     /**
-     * The ringtone to use.
+     * The title textview.
      */
-    private Ringtone m_ringtone;
+    private TextView m_titleView;
 
     /**
-     * The actual timer object.
+     * The state textview.
      */
-    private PausableTimer m_timer;
+    private TextView m_stateView;
 
     /**
      * The main view.
@@ -180,42 +355,96 @@ public class TimerMainActivity extends Activity
 
     /**
      * An event raised when the activity is created - set the sequence view,
-     * capture events, etc.
+     * capture events, and attach to the timer service (binding to it, unless
+     * a previous instance left us its binding).
      */
     @Override
     public void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
-        m_timer = new PausableTimer(this);
-
         setContentView(R.layout.timer_main_activity);
+        m_frameTicker = FrameTicker.create(this);
         m_mainView = findViewById(R.id.main_view);
 
         initWidgets();
+        updateViews();
+        setVolumeControlStream(AudioManager.STREAM_NOTIFICATION);
 
-        SharedPreferences prefs =
-            PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-        prefs.registerOnSharedPreferenceChangeListener(this);
+        m_binding = (ServiceBinding)getLastNonConfigurationInstance();
+        if (m_binding == null)
+            m_binding = new ServiceBinding(this);
+        m_binding.attach(this);
+    }
 
-        updatePrefs();
-        updateScreenForState();
-        m_currentInterval = 0;
-        setVolumeControlStream(AudioManager.STREAM_NOTIFICATION);
+    /**
+     * An event raised when the activity comes to the foreground. Resume the
+     * ticks, which also brings the time up to date right away.
+     */
+    @Override
+    protected void onResume()
+    {
+        super.onResume();
+        m_resumed = true;
+        updateTicks();
     }
 
     /**
-     * An event raised when the activity needs to pause. Pause the timer.
-     * Note that while pausing the activity pauses the timer, resuming it
-     * does not automatically resume the timer. It seems to make more sense
-     * for the user to resume the timer manually.
-     * @see android.app.Activity#onPause()
+     * An event raised when the activity leaves the foreground (e.g. behind a
+     * dialog or the settings). Suspend the ticks; the session itself, its
+     * boundaries and cues go on in the service.
      */
     @Override
     protected void onPause()
     {
         super.onPause();
-        if (m_state == TimerState.RUNNING)
-            onPauseRequest();
+        m_resumed = false;
+        updateTicks();
+    }
+
+    /**
+     * The activity is being destroyed for a configuration change. Hand the
+     * service binding over to the next instance.
+     */
+    @Override
+    public Object onRetainNonConfigurationInstance()
+    {
+        m_retainingBinding = true;
+        return m_binding;
+    }
+
+    /**
+     * An event raised when the activity is destroyed. Detach from the timer
+     * service (and unbind, unless the binding is retained); a running session
+     * goes on without us.
+     */
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        if (m_retainingBinding)
+            m_binding.detach();
+        else
+            m_binding.unbind();
+        m_service = null;
+    }
+
+    /**
+     * We're attached to the (connected) timer service.
+     */
+    private void onServiceAttached(TimerService service)
+    {
+        m_service = service;
+        m_service.setListener(this);
+        onTimerStateChanged();
+    }
+
+    /**
+     * The timer service was disconnected (e.g. it crashed).
+     */
+    private void onServiceDetached()
+    {
+        m_service = null;
+        onTimerStateChanged();
     }
 
     /**
@@ -223,14 +452,11 @@ public class TimerMainActivity extends Activity
      */
     private void initWidgets()
     {
-        m_chronometer = (TextView)findViewById(R.id.time_view);
+        m_chronometer = (ChronoView)findViewById(R.id.time_view);
         m_titleView = (TextView)findViewById(R.id.interval_timer_title);
         m_stateView = (TextView)findViewById(R.id.interval_timer_state);
 
-        m_startButton = (Button)findViewById(R.id.start_button);
-        m_stopButton = (Button)findViewById(R.id.stop_button);
-        m_pauseButton = (Button)findViewById(R.id.pause_button);
-        m_resumeButton = (Button)findViewById(R.id.resume_button);
+        m_readyMessage = getString(R.string.state_ready);
 
         OnClickListener buttonListener = new OnClickListener() {
             @Override
@@ -239,94 +465,181 @@ public class TimerMainActivity extends Activity
                 TimerMainActivity.this.onButtonClicked((Button)view);
             }
         };
-        m_startButton.setOnClickListener(buttonListener);
-        m_stopButton.setOnClickListener(buttonListener);
-        m_pauseButton.setOnClickListener(buttonListener);
-        m_resumeButton.setOnClickListener(buttonListener);
+        for (int i = 0; i < CONTROL_COUNT; i++)
+        {
+            m_buttons[i] = (Button)findViewById(CONTROL_BUTTON_IDS[i]);
+            m_buttons[i].setOnClickListener(buttonListener);
+        }
+
+        // The hidden timing debug screen.
+        m_chronometer.setOnLongClickListener(new OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view)
+            {
+                startActivity(new Intent(TimerMainActivity.this,
+                                         DebugActivity.class));
+                return true;
+            }
+        });
     }
 
     /**
-     * Update user-modifiable preferences.
+     * Compute what the session views should show, according to the current
+     * state and preferences.
      */
-    private void updatePrefs()
+    private void computeViewState(ViewState viewState)
     {
-        m_numIntervals = getIntPrefByKeyID(R.string.pref_num_intervals_key,
-                R.string.pref_num_intervals_default);
-        assert(m_numIntervals > 0);
-        m_intervalLength = getIntPrefByKeyID(R.string.pref_interval_length_key,
-                R.string.pref_interval_length_default);
-        assert(m_intervalLength > 0);
-        m_countdown = getIntPrefByKeyID(R.string.pref_countdown_key,
-                R.string.pref_countdown_default);
-        assert(m_intervalLength >= 0);
-
-        SharedPreferences prefs =
-            PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-
-        String notificationAsString =
-            prefs.getString(getString(R.string.pref_ringtone_key),
-                            "DEFAULT_NOTIFICATION_URI");
-        Uri notificationURI = Uri.parse(notificationAsString);
-        m_ringtone = RingtoneManager.getRingtone(this, notificationURI);
-        if (m_ringtone == null)
+        // Until we're bound, there's nothing to show.
+        if (m_service == null)
         {
-            Log.e(this.getClass().toString(),
-                  "Couldn't load ringtone. Loading something.");
-            notificationURI = RingtoneManager.getValidRingtoneUri(this);
-            m_ringtone = RingtoneManager.getRingtone(this, notificationURI);
+            viewState.controls =
+                STATE_CONTROLS[TimerService.TimerState.READY.ordinal()];
+            viewState.title = "";
+            viewState.state = m_readyMessage;
+            viewState.keepScreenOn = false;
+            return;
         }
-
-        m_ringtone.setStreamType(AudioManager.STREAM_NOTIFICATION);
-
-        m_preventLocking =
-            prefs.getBoolean(getString(R.string.pref_nolock_key), false);
-        if (m_state == TimerState.RUNNING)
-            m_mainView.setKeepScreenOn(m_preventLocking);
+        TimerService.TimerState state = m_service.getState();
+        viewState.controls = STATE_CONTROLS[state.ordinal()];
+        // The service caches these, so they're only formatted when they
+        // change.
+        viewState.title = m_service.getTitleMessage();
+        viewState.state = m_service.getStateMessage();
+        // Keeping the screen on would defeat low power mode.
+        TimerSettings settings = m_service.getSettings();
+        viewState.keepScreenOn =
+            state == TimerService.TimerState.RUNNING && settings != null &&
+            settings.getPreventLocking() && !settings.getLowPower();
     }
 
     /**
-     * Update the title, stateview and screen locking according to the current
-     * state and preferences.
+     * Bring the session views (the controls, title, state and screen
+     * locking) up to date. Only the views that should show something other
+     * than what they show are touched.
      */
-    private void updateScreenForState()
+    private void updateViews()
     {
-        String title = getString(R.string.timer_title_message,
-                m_numIntervals, m_intervalLength, m_countdown);
-        m_titleView.setText(title);
-        String stateMsg = "";
-        m_mainView.setKeepScreenOn(false);
-        if (m_state == TimerState.READY)
-            stateMsg = getString(R.string.state_ready);
-        else if (m_state == TimerState.PAUSED)
-            stateMsg = getString(R.string.state_paused);
-        else if (m_state == TimerState.RUNNING)
+        ViewState target = m_targetViewState;
+        ViewState shown = m_shownViewState;
+        computeViewState(target);
+        boolean firstTime = (shown.controls == CONTROLS_UNKNOWN);
+
+        int changed = getChangedControls(shown.controls, target.controls);
+        for (int i = 0; i < CONTROL_COUNT; i++)
         {
-            m_mainView.setKeepScreenOn(m_preventLocking);
-            if (m_currentInterval == 0)
-                stateMsg = getString(R.string.state_running_countdown);
-            else
+            if ((changed & (1 << i)) != 0)
             {
-                stateMsg =
-                    getString(R.string.state_running_interval,
-                        m_currentInterval);
+                m_buttons[i].setVisibility((target.controls & (1 << i)) != 0 ?
+                                           View.VISIBLE : View.GONE);
             }
         }
-        m_stateView.setText(stateMsg);
+        updateMenuItems();
+        if (!target.title.equals(shown.title))
+            m_titleView.setText(target.title);
+        if (!target.state.equals(shown.state))
+            m_stateView.setText(target.state);
+        if (firstTime || target.keepScreenOn != shown.keepScreenOn)
+            m_mainView.setKeepScreenOn(target.keepScreenOn);
+        shown.copyFrom(target);
+    }
+
+    /**
+     * Bring the control menu items up to date with the target view state.
+     */
+    private void updateMenuItems()
+    {
+        // Menu items are only initialized the first time they are used.
+        if (m_menuItems == null)
+            return;
+        int controls = m_targetViewState.controls;
+        int changed = getChangedControls(m_menuControls, controls);
+        for (int i = 0; i < CONTROL_COUNT; i++)
+        {
+            if ((changed & (1 << i)) != 0)
+                m_menuItems[i].setVisible((controls & (1 << i)) != 0);
+        }
+        m_menuControls = controls;
+    }
+
+    /**
+     * Get the controls that differ between the two given sets of controls.
+     * All of them do if nothing was shown yet.
+     */
+    private static int getChangedControls(int shown, int target)
+    {
+        if (shown == CONTROLS_UNKNOWN)
+            return ALL_CONTROLS;
+        return shown ^ target;
     }
 
     /**
-     * Preferences were changed. Re-read all values.
+     * The session state, the current interval or the settings changed.
      */
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences a_arg0,
-            String a_arg1)
+    public void onTimerStateChanged()
     {
-        // Guess it's OK to do this even while we're running... Although of
-        // course we might have already passed the interval length, or the
-        // number of intervals.
-        updatePrefs();
-        updateScreenForState();
+        updateViews();
+        updateTicks();
+    }
 
+    /**
+     * Get the number of decimal places to display the time with.
+     */
+    private int getDisplayDecimals()
+    {
+        if (m_service == null || m_service.getSettings() == null)
+            return 0;
+        int decimals = m_service.getSettings().getDisplayDecimals();
+        return Math.max(0, Math.min(decimals, MAX_DISPLAY_DECIMALS));
+    }
+
+    /**
+     * Drive the time display while we're in the foreground: whole seconds
+     * from the service's ticks, or fractions from the display frames while
+     * the session is running. Nothing is rendered in the background.
+     */
+    private void updateTicks()
+    {
+        int decimals = getDisplayDecimals();
+        if (m_service != null)
+            m_service.setTicksEnabled(m_resumed && decimals == 0);
+        if (decimals == 0 || !m_resumed)
+        {
+            m_frameTicker.stop();
+            return;
+        }
+        if (m_service.getState() == TimerService.TimerState.RUNNING)
+            m_frameTicker.start();
+        else
+            m_frameTicker.stop();
+        // Bring the display up to date right away (e.g. when paused).
+        onFrame(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * A display frame, when the time is displayed with fractions of a
+     * second. Display the time left at the frame's time, rounded up like
+     * the whole seconds are.
+     */
+    @Override
+    public void onFrame(long frameTime)
+    {
+        // Called on every frame, so must not allocate anything.
+        int decimals = getDisplayDecimals();
+        long unit = MILLIS_IN_SECOND;
+        for (int i = 0; i < decimals; i++)
+            unit /= 10;
+        long remaining = m_service.getMillisRemaining(frameTime);
+        long value = remaining / unit;
+        if (remaining % unit > 0)
+            value++;
+        if (value == m_displayedFraction && decimals == m_displayedDecimals)
+            return;
+        m_displayedFraction = value;
+        m_displayedDecimals = decimals;
+        m_displayedSeconds = -1;
+        int start = DigitFormatter.formatFixed(value, decimals, m_tickChars);
+        m_chronometer.setDigits(m_tickChars, start, m_tickChars.length - start);
     }
 
     /**
@@ -339,12 +652,11 @@ public class TimerMainActivity extends Activity
     {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.options, menu);
-        m_startMenuItem = menu.findItem(R.id.menu_start);
-        m_stopMenuItem = menu.findItem(R.id.menu_stop);
-        m_pauseMenuItem = menu.findItem(R.id.menu_pause);
-        m_resumeMenuItem = menu.findItem(R.id.menu_resume);
-
-        setWidgetsForState();
+        m_menuItems = new MenuItem[CONTROL_COUNT];
+        for (int i = 0; i < CONTROL_COUNT; i++)
+            m_menuItems[i] = menu.findItem(CONTROL_MENU_IDS[i]);
+        m_menuControls = CONTROLS_UNKNOWN;
+        updateMenuItems();
 
         return true;
     }
@@ -367,12 +679,13 @@ public class TimerMainActivity extends Activity
             onResumeRequest();
             return true;
         case R.id.menu_stop:
-            onLastIntervalFinished();
+            onStopRequest();
             return true;
         case R.id.menu_settings:
             startSettingsActivity();
             return true;
         case R.id.menu_exit:
+            onStopRequest();
             finish();
             return true;
         }
@@ -396,124 +709,18 @@ public class TimerMainActivity extends Activity
             onResumeRequest();
             return;
         case R.id.stop_button:
-            onLastIntervalFinished();
+            onStopRequest();
             return;
         }
     }
 
-    /**
-     * Set the menu items and widgets for start state.
-     */
-    private void setWidgetsForStartState()
-    {
-        // Menu items are only initialized the first time they are used.
-        if (m_startMenuItem != null)
-        {
-            m_startMenuItem.setVisible(false);
-            m_stopMenuItem.setVisible(true);
-            m_pauseMenuItem.setVisible(true);
-            m_resumeMenuItem.setVisible(false);
-        }
-        m_startButton.setVisibility(Button.GONE);
-        m_stopButton.setVisibility(Button.VISIBLE);
-        m_pauseButton.setVisibility(Button.VISIBLE);
-        m_resumeButton.setVisibility(Button.GONE);
-
-    }
-
-    /**
-     * Set the menu items and widgets for pause state.
-     */
-    private void setWidgetsForPauseState()
-    {
-        // Menu items are only initialized the first time they are used.
-        if (m_startMenuItem != null)
-        {
-            m_startMenuItem.setVisible(false);
-            m_stopMenuItem.setVisible(true);
-            m_pauseMenuItem.setVisible(false);
-            m_resumeMenuItem.setVisible(true);
-        }
-        m_startButton.setVisibility(Button.GONE);
-        m_stopButton.setVisibility(Button.VISIBLE);
-        m_pauseButton.setVisibility(Button.GONE);
-        m_resumeButton.setVisibility(Button.VISIBLE);
-    }
-
-    /**
-     * Set the menu items and widgets for resume state.
-     */
-    private void setWidgetsForResumeState()
-    {
-        // Menu items are only initialized the first time they are used.
-        if (m_startMenuItem != null)
-        {
-            m_startMenuItem.setVisible(false);
-            m_stopMenuItem.setVisible(true);
-            m_pauseMenuItem.setVisible(true);
-            m_resumeMenuItem.setVisible(false);
-        }
-
-        m_startButton.setVisibility(Button.GONE);
-        m_stopButton.setVisibility(Button.VISIBLE);
-        m_pauseButton.setVisibility(Button.VISIBLE);
-        m_resumeButton.setVisibility(Button.GONE);
-     }
-
-
-    /**
-     * Set the menu items and widgets for stop state.
-     */
-    private void setWidgetsForStopState()
-    {
-        // Menu items are only initialized the first time they are used.
-        if (m_startMenuItem != null)
-        {
-            m_startMenuItem.setVisible(true);
-            m_stopMenuItem.setVisible(false);
-            m_pauseMenuItem.setVisible(false); // Because it's not working yet.
-            m_resumeMenuItem.setVisible(false);
-        }
-        m_startButton.setVisibility(Button.VISIBLE);
-        m_stopButton.setVisibility(Button.GONE);
-        m_pauseButton.setVisibility(Button.GONE);
-        m_resumeButton.setVisibility(Button.GONE);
-     }
-
-    /**
-     * Set the menu items and widgets according to the current state.
-     */
-    private void setWidgetsForState()
-    {
-        switch (m_state)
-        {
-            case READY:
-                setWidgetsForStopState();
-                break;
-            case PAUSED:
-                setWidgetsForPauseState();
-                break;
-            case RUNNING:
-                setWidgetsForStartState();
-                break;
-        }
-    }
-
     /**
      * The 'start' button was pressed.
      */
     private void onStartRequest()
     {
-        assert(m_state == TimerState.READY);
-        setWidgetsForStartState();
-        m_state = TimerState.RUNNING;
-
-        // Skip 0 length countdown.
-        m_currentInterval = 0;
-        if (m_countdown == 0)
-            m_currentInterval++;
-
-        startNextInterval();
+        if (m_service != null)
+            m_service.startSession();
     }
 
     /**
@@ -521,11 +728,8 @@ public class TimerMainActivity extends Activity
      */
     private void onPauseRequest()
     {
-        assert(m_state == TimerState.RUNNING);
-        m_state = TimerState.PAUSED;
-        m_timer.pause();
-        setWidgetsForPauseState();
-        updateScreenForState();
+        if (m_service != null)
+            m_service.pauseSession();
     }
 
     /**
@@ -533,123 +737,45 @@ public class TimerMainActivity extends Activity
      */
     private void onResumeRequest()
     {
-        assert(m_state == TimerState.PAUSED);
-        setWidgetsForResumeState();
-        m_state = TimerState.RUNNING;
-        m_timer.resume();
-        updateScreenForState();
+        if (m_service != null)
+            m_service.resumeSession();
     }
 
     /**
-     * Start the 'settings' activity.
+     * The 'stop' button was pressed.
      */
-    private void startSettingsActivity()
+    private void onStopRequest()
     {
-        Intent intent = new Intent(this, SettingsActivity.class);
-        startActivity(intent);
-    }
-
-    /**
-     * A timer tick event.
-     */
-    public void onTimerTick(int secondsTillFinish)
-    {
-        // TODO: Format this.
-        String secondsString = String.valueOf(secondsTillFinish);
-        m_chronometer.setText(secondsString);
-    }
-
-    /**
-     * An interval has finished.
-     */
-    public void onIntervalFinished()
-    {
-        
-        m_ringtone.play();
-        m_timer.stop();
-        onTimerTick(0);
-        m_currentInterval++;
-        if (m_currentInterval <= m_numIntervals)
-            startNextInterval();
-        else
+        if (m_service != null &&
+            m_service.getState() != TimerService.TimerState.READY)
         {
-            onLastIntervalFinished();
+            m_service.stopSession();
         }
-
-    }
-
-    /**
-     * The timer finished or was stopped.
-     */
-    private void onLastIntervalFinished()
-    {
-        assert(m_state == TimerState.RUNNING || m_state == TimerState.PAUSED);
-        m_timer.stop();
-        m_state = TimerState.READY;
-        setWidgetsForStopState();
-        updateScreenForState();
-    }
-
-   /**
-     * Start the next interval.
-     */
-    private void startNextInterval()
-    {
-        int thisIntervalLength =
-            (m_currentInterval == 0 ? m_countdown : m_intervalLength);
-        updateScreenForState();
-        startTimer(thisIntervalLength);
-    }
-
-    /**
-     * Start the timer, also displaying the number of seconds in the chronometer
-     * view.
-     * @param seconds
-     */
-    private void startTimer(int seconds)
-    {
-        // Fake a first tick to display the number of seconds left right now.
-        onTimerTick(seconds);
-        m_timer.start(seconds);
     }
 
     /**
-     * Helper method: get a string preference, identified by it's key string ID.
-     *
-     * @param keyStrId The resource ID of the string identifying the key.
-     * @param defValueResId The resource ID of the string specifying the
-     * default value.
+     * Start the 'settings' activity.
      */
-    private String getStrPrefByKeyID(int keyStrId, int defValueResId)
+    private void startSettingsActivity()
     {
-        SharedPreferences prefs = PreferenceManager
-                .getDefaultSharedPreferences(getBaseContext());
-
-        String key = getString(keyStrId);
-        if (key == null || prefs == null)
-            return null;
-        String defaultValue = getString(defValueResId);
-
-        return prefs.getString(key, defaultValue);
+        Intent intent = new Intent(this, SettingsActivity.class);
+        startActivity(intent);
     }
 
     /**
-     * Helper method: get an int preference (cast from a string), identified by
-     * it's key string ID. If the preference was not set, return the default
-     * value string, cast to integer, instead.
-     *
-     * @param keyStrId The resource ID of the string identifying the preference
-     * key.
-     * @param defValueResId The resource ID of the string specifying the
-     * default value (and NOT the default value itself!!!).
+     * A timer tick event.
      */
-    private int getIntPrefByKeyID(int keyStrId, int defValueResId)
+    @Override
+    public void onTimerTick(int secondsTillFinish)
     {
-        String valueAsString = getStrPrefByKeyID(keyStrId, defValueResId);
-
-        // Make sure this is really an int or you'll get a
-        // NumberFormatException!
-        int value = Integer.parseInt(valueAsString);
-        return value;
+        // This is called once a second for the whole session, so it must not
+        // allocate anything. The same value may come again (e.g. the 0 sent
+        // on each boundary), and then the display is left alone.
+        if (secondsTillFinish == m_displayedSeconds)
+            return;
+        m_displayedSeconds = secondsTillFinish;
+        m_displayedFraction = -1;
+        int start = DigitFormatter.format(secondsTillFinish, m_tickChars);
+        m_chronometer.setDigits(m_tickChars, start, m_tickChars.length - start);
     }
 }
@@ -0,0 +1,1124 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.appwidget.AppWidgetManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.content.res.Configuration;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.View;
+import android.widget.RemoteViews;
+
+/**
+ * The service running the timer sessions. The timer, the cue players and the
+ * session state live here rather than in the activity, so a session goes on
+ * with the screen off or while another application is in front. While a
+ * session is started, the service keeps itself started and in the foreground
+ * (with an ongoing notification), and holds a partial wake lock while it's
+ * running.
+ * In low power mode there's no wake lock: the device may sleep between the
+ * boundaries, and an exact alarm is registered for the next boundary that
+ * needs attention (one with a cue, or the end of the session). The alarm
+ * wakes the device up just long enough to deliver the boundary and play its
+ * cue, and each such wakeup is counted.
+ * The notification and the home screen widgets show the remaining time in a
+ * system rendered Chronometer, so they keep updating without waking us up,
+ * and are only refreshed when the session changes (e.g. at the boundaries).
+ * The activity binds to the service, and is just a view of it: it attaches
+ * a listener for ticks and state changes, and can go away and come back at
+ * any time without affecting the session.
+ * Each session state transition saves a SessionSnapshot, so if the process
+ * is killed mid-session, the session is restored when the service is
+ * created again (the system restarts it), silently skipping any boundaries
+ * missed meanwhile.
+ *
+ * @author dedi
+ */
+public class TimerService extends Service
+    implements OnSharedPreferenceChangeListener, PausableTimerListener,
+               SettingsLoader.Listener
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The various timer states.
+     */
+    enum TimerState {
+        READY,   // Ready to run. Valid next state: Running.
+        RUNNING, // Running. Valid next steps: Ready (if stopped), paused
+        PAUSED,  // Paused. Valid next steps: Running, Ready (if stopped).
+    }
+
+    /**
+     * The ID of the ongoing session notification.
+     */
+    private final static int NOTIFICATION_ID = 1;
+
+    /**
+     * The action asking the service to push the current views to the home
+     * screen widgets.
+     */
+    final static String ACTION_UPDATE_WIDGETS =
+        "com.xomzom.androidstuff.timerapp.UPDATE_WIDGETS";
+
+    /**
+     * Milliseconds in a second.
+     */
+    private final static int MILLIS_IN_SECOND = 1000;
+
+    /**
+     * The action of the boundary alarm broadcast.
+     */
+    private final static String ACTION_BOUNDARY_ALARM =
+        "com.xomzom.androidstuff.timerapp.BOUNDARY_ALARM";
+
+    /**
+     * How long (in milliseconds) to keep the device awake after a boundary
+     * alarm, so the cue gets played.
+     */
+    private final static int CUE_WAKE_MILLIS = 3000;
+
+
+    //
+    // Types.
+    //
+
+    /**
+     * A listener for the session events, e.g. the activity showing the
+     * session. All events are delivered on the UI thread.
+     */
+    public interface Listener
+    {
+        /**
+         * A timer tick event. Only delivered while ticks are enabled.
+         */
+        void onTimerTick(int secondsTillFinish);
+
+        /**
+         * The session state, the current interval or the settings changed.
+         */
+        void onTimerStateChanged();
+    }
+
+    /**
+     * The binder handed to clients in this process.
+     */
+    public class LocalBinder extends Binder
+    {
+        /**
+         * Get the service.
+         */
+        public TimerService getService()
+        {
+            return TimerService.this;
+        }
+    }
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * The binder handed to clients.
+     */
+    private final IBinder m_binder = new LocalBinder();
+
+    /**
+     * The session listener, or null if nothing is attached.
+     */
+    private Listener m_listener;
+
+    /**
+     * The current timer state.
+     */
+    private TimerState m_state = TimerState.READY;
+
+    /**
+     * The current settings snapshot, or null until they are first loaded.
+     */
+    private TimerSettings m_settings;
+
+    /**
+     * The timeline of the current session, or null if no session was started.
+     */
+    private Timeline m_timeline;
+
+    /**
+     * true if the current session runs the interval settings (rather than a
+     * program), so it can be re-planned when they change.
+     */
+    private boolean m_sessionUsesIntervals;
+
+    /**
+     * The current interval number.
+     */
+    private long m_currentInterval;
+
+    /**
+     * The last seconds value ticked, or -1 if there was no tick yet.
+     */
+    private int m_secondsTillFinish = -1;
+
+    /**
+     * true if the listener wants ticks (i.e. the time is visible).
+     */
+    private boolean m_ticksEnabled;
+
+    /**
+     * true while the service is started and in the foreground.
+     */
+    private boolean m_foreground;
+
+    /**
+     * The time (System.currentTimeMillis()) the notification was first shown
+     * for the current session.
+     */
+    private long m_notificationTime;
+
+    /**
+     * Keeps the CPU running while the timer is running.
+     */
+    private PowerManager.WakeLock m_wakeLock;
+
+    /**
+     * Keeps the CPU running for a while after a boundary alarm, in low power
+     * mode.
+     */
+    private PowerManager.WakeLock m_cueWakeLock;
+
+    /**
+     * The boundary alarm broadcast, sent by the alarm manager.
+     */
+    private PendingIntent m_alarmIntent;
+
+    /**
+     * Receives the boundary alarm broadcast. The alarm manager holds a wake
+     * lock while it runs.
+     */
+    private final BroadcastReceiver m_alarmReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent)
+        {
+            onBoundaryAlarm();
+        }
+    };
+
+    /**
+     * The number of boundary alarms that woke us up during the current (or
+     * last) session, or -1 if no session was started.
+     */
+    private int m_wakeupCount = -1;
+
+    /**
+     * Plays the cue at the end of each segment.
+     */
+    private CuePlayer m_cuePlayer;
+
+    /**
+     * Plays the cues ahead of time on the audio clock, in precise cues mode.
+     */
+    private ScheduledCuePlayer m_scheduledCuePlayer;
+
+    /**
+     * The actual timer object.
+     */
+    private PausableTimer m_timer;
+
+    /**
+     * The cached title message, and the settings snapshot it was formatted
+     * for (snapshots are immutable, so the same snapshot means the same
+     * title).
+     */
+    private String m_titleMessage;
+    private TimerSettings m_titleSettings;
+
+    /**
+     * The cached state message, and the state, interval and wakeup count
+     * (-1 if not shown) it was formatted for.
+     */
+    private String m_stateMessage;
+    private TimerState m_stateMessageState;
+    private long m_stateMessageInterval;
+    private int m_stateMessageWakeups;
+
+    /**
+     * The event tracer of the timer, the cue players and the sessions. Off
+     * unless turned on from the debug screen.
+     */
+    private final Tracer m_tracer = new Tracer();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * An event raised when the service is created. Create the timer, and
+     * start loading the settings.
+     */
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        m_timer = new PausableTimer(this);
+        m_timer.setTracer(m_tracer);
+        updateTicks();
+        m_cuePlayer = new CuePlayer(this, m_tracer);
+        m_scheduledCuePlayer = new ScheduledCuePlayer(m_tracer);
+        PowerManager powerManager =
+            (PowerManager)getSystemService(POWER_SERVICE);
+        m_wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                this.getClass().getName());
+        m_wakeLock.setReferenceCounted(false);
+        m_cueWakeLock = powerManager.newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK,
+                this.getClass().getName() + ".cue");
+        m_cueWakeLock.setReferenceCounted(false);
+
+        Intent alarmIntent = new Intent(ACTION_BOUNDARY_ALARM);
+        alarmIntent.setPackage(getPackageName());
+        m_alarmIntent = PendingIntent.getBroadcast(this, 0, alarmIntent, 0);
+        registerReceiver(m_alarmReceiver,
+                new IntentFilter(ACTION_BOUNDARY_ALARM));
+
+        // Preferences are first accessed in the background, and we only
+        // start listening to changes once they're loaded.
+        SettingsLoader.loadInBackground(this, this);
+
+        restoreSession();
+    }
+
+    /**
+     * The service was started, either when a session starts (and it stays
+     * started until the session is over), or to update the widgets.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId)
+    {
+        if (intent != null &&
+            ACTION_UPDATE_WIDGETS.equals(intent.getAction()))
+        {
+            updateWidgets();
+            if (!m_foreground)
+                stopSelf(startId);
+        }
+        // If we're killed mid-session, have the system restart us, and the
+        // session is restored from its snapshot.
+        return START_STICKY;
+    }
+
+    /**
+     * A client binds to the service.
+     */
+    @Override
+    public IBinder onBind(Intent intent)
+    {
+        return m_binder;
+    }
+
+    /**
+     * The device configuration changed (e.g. the language). Drop the cached
+     * messages, so they're formatted again from the new resources.
+     */
+    @Override
+    public void onConfigurationChanged(Configuration newConfig)
+    {
+        super.onConfigurationChanged(newConfig);
+        m_titleSettings = null;
+        m_stateMessage = null;
+        onSessionChanged();
+    }
+
+    /**
+     * An event raised when the service is destroyed. Stop the timer, and
+     * release everything.
+     */
+    @Override
+    public void onDestroy()
+    {
+        super.onDestroy();
+        m_timer.stop();
+        m_cuePlayer.release();
+        m_scheduledCuePlayer.stop();
+        if (m_wakeLock.isHeld())
+            m_wakeLock.release();
+        if (m_cueWakeLock.isHeld())
+            m_cueWakeLock.release();
+        getAlarmManager().cancel(m_alarmIntent);
+        unregisterReceiver(m_alarmReceiver);
+        if (m_settings != null)
+        {
+            SharedPreferences prefs =
+                PreferenceManager.getDefaultSharedPreferences(this);
+            prefs.unregisterOnSharedPreferenceChangeListener(this);
+        }
+    }
+
+    /**
+     * Attach the given session listener, replacing any attached one, or detach
+     * it if null. Ticks are disabled until the listener enables them.
+     */
+    public void setListener(Listener listener)
+    {
+        m_listener = listener;
+        m_ticksEnabled = false;
+        updateTicks();
+    }
+
+    /**
+     * Enable or disable the ticks to the listener; they're only needed while
+     * the time is visible. The timer doesn't tick at all while they're
+     * disabled, and only wakes up at the boundaries. When enabled, the
+     * listener gets the current value right away.
+     */
+    public void setTicksEnabled(boolean enabled)
+    {
+        m_ticksEnabled = enabled;
+        updateTicks();
+    }
+
+    /**
+     * Turn the timer ticks on only if there's someone to show them.
+     */
+    private void updateTicks()
+    {
+        boolean enabled = (m_listener != null && m_ticksEnabled);
+        m_timer.setTicksEnabled(enabled);
+        // Without a session, the last tick stays on display.
+        if (enabled && !m_timer.isStarted() && m_secondsTillFinish >= 0)
+            m_listener.onTimerTick(m_secondsTillFinish);
+    }
+
+    /**
+     * Get the current timer state.
+     */
+    public TimerState getState()
+    {
+        return m_state;
+    }
+
+    /**
+     * Get the current settings snapshot, or null if they are not loaded yet.
+     */
+    public TimerSettings getSettings()
+    {
+        return m_settings;
+    }
+
+    /**
+     * Get the number of milliseconds left in the current segment at the given
+     * time (SystemClock.elapsedRealtime()), or 0 if there's no session.
+     */
+    public long getMillisRemaining(long now)
+    {
+        return m_timer.getMillisRemaining(now);
+    }
+
+    /**
+     * Get the title message for the current settings, or "" if they are not
+     * loaded yet. It's only formatted again when the settings change.
+     */
+    public String getTitleMessage()
+    {
+        if (m_settings == null)
+            return "";
+        if (m_settings != m_titleSettings)
+        {
+            m_titleMessage = formatTitleMessage();
+            m_titleSettings = m_settings;
+        }
+        return m_titleMessage;
+    }
+
+    /**
+     * Format the title message for the current (loaded) settings.
+     */
+    private String formatTitleMessage()
+    {
+        if (m_settings.getProgram() != null)
+        {
+            return getString(R.string.timer_program_title_message,
+                    m_settings.getProgram().getName());
+        }
+        return getString(R.string.timer_title_message,
+                m_settings.getNumIntervals(), m_settings.getIntervalLength(),
+                m_settings.getCountdown());
+    }
+
+    /**
+     * Get the state message for the current state. In low power mode, it
+     * includes the number of wakeups the session used so far. It's only
+     * formatted again when one of these changes.
+     */
+    public String getStateMessage()
+    {
+        int wakeups = -1;
+        if (m_wakeupCount >= 0 && m_settings != null &&
+            m_settings.getLowPower())
+        {
+            wakeups = m_wakeupCount;
+        }
+        if (m_stateMessage == null || m_state != m_stateMessageState ||
+            m_currentInterval != m_stateMessageInterval ||
+            wakeups != m_stateMessageWakeups)
+        {
+            m_stateMessage = formatStateMessage(wakeups);
+            m_stateMessageState = m_state;
+            m_stateMessageInterval = m_currentInterval;
+            m_stateMessageWakeups = wakeups;
+        }
+        return m_stateMessage;
+    }
+
+    /**
+     * Format the state message for the current state.
+     *
+     * @param wakeups The number of wakeups to show, or -1 for none.
+     */
+    private String formatStateMessage(int wakeups)
+    {
+        String stateMsg = getString(R.string.state_ready);
+        if (m_state == TimerState.PAUSED)
+            stateMsg = getString(R.string.state_paused);
+        else if (m_state == TimerState.RUNNING)
+        {
+            if (m_currentInterval == 0)
+                stateMsg = getString(R.string.state_running_countdown);
+            else
+            {
+                stateMsg = getString(R.string.state_running_interval,
+                        m_currentInterval);
+            }
+        }
+        if (wakeups >= 0)
+            stateMsg = getString(R.string.state_wakeups, stateMsg, wakeups);
+        return stateMsg;
+    }
+
+    /**
+     * Get the number of boundary alarms that woke us up during the current
+     * (or last) session, or -1 if no session was started.
+     */
+    public int getWakeupCount()
+    {
+        return m_wakeupCount;
+    }
+
+    /**
+     * Get the cue player, for its latency statistics.
+     */
+    public CuePlayer getCuePlayer()
+    {
+        return m_cuePlayer;
+    }
+
+    /**
+     * Get the precise (scheduled) cue player, for its lateness statistics.
+     */
+    public ScheduledCuePlayer getScheduledCuePlayer()
+    {
+        return m_scheduledCuePlayer;
+    }
+
+    /**
+     * Get the event tracer.
+     */
+    public Tracer getTracer()
+    {
+        return m_tracer;
+    }
+
+    /**
+     * Get the timer, for its timing statistics. It must not be controlled
+     * directly; use the session operations.
+     */
+    public TimerEngine getTimer()
+    {
+        return m_timer;
+    }
+
+    /**
+     * Start a new session.
+     */
+    public void startSession()
+    {
+        assert(m_state == TimerState.READY);
+        m_state = TimerState.RUNNING;
+
+        ensureSettings();
+        m_timeline = compileTimeline();
+        m_currentInterval = m_timeline.getIntervalNumber(0);
+        m_wakeupCount = 0;
+        m_tracer.record(Tracer.EVENT_SESSION_STARTED, 0, 0);
+        m_timer.start(m_timeline);
+        if (m_timer.isStarted())
+        {
+            saveSnapshot();
+            onSessionChanged();
+        }
+        else
+            stopSession(); // An empty timeline.
+    }
+
+    /**
+     * Pause the running session.
+     */
+    public void pauseSession()
+    {
+        assert(m_state == TimerState.RUNNING);
+        m_state = TimerState.PAUSED;
+        m_tracer.record(Tracer.EVENT_SESSION_PAUSED,
+                        m_timer.getCurrentSegment(), 0);
+        m_timer.pause();
+        saveSnapshot();
+        onSessionChanged();
+    }
+
+    /**
+     * Resume the paused session.
+     */
+    public void resumeSession()
+    {
+        assert(m_state == TimerState.PAUSED);
+        m_state = TimerState.RUNNING;
+        m_tracer.record(Tracer.EVENT_SESSION_RESUMED,
+                        m_timer.getCurrentSegment(), 0);
+        m_timer.resume();
+        saveSnapshot();
+        onSessionChanged();
+    }
+
+    /**
+     * Stop the session (whether it finished or not).
+     */
+    public void stopSession()
+    {
+        m_tracer.record(Tracer.EVENT_SESSION_STOPPED,
+                        m_timer.getCurrentSegment(), 0);
+        m_timer.stop();
+        m_state = TimerState.READY;
+        saveSnapshot();
+        onSessionChanged();
+    }
+
+    /**
+     * Save a snapshot of the current session (or delete it, if there's no
+     * session), to be restored if the process is killed.
+     */
+    private void saveSnapshot()
+    {
+        if (m_state == TimerState.READY)
+        {
+            SessionSnapshot.delete(this);
+            return;
+        }
+        long segment = m_timer.getCurrentSegment();
+        SessionSnapshot snapshot;
+        if (m_state == TimerState.PAUSED)
+        {
+            snapshot = SessionSnapshot.paused(m_timeline, segment,
+                    m_sessionUsesIntervals, m_timer.getMillisRemaining());
+        }
+        else
+        {
+            snapshot = SessionSnapshot.running(m_timeline, segment,
+                    m_sessionUsesIntervals,
+                    m_timer.getSegmentDeadline(segment));
+        }
+        try {
+            snapshot.save(this);
+        }
+        catch (IOException e)
+        {
+            Log.e(this.getClass().toString(),
+                  "Couldn't save session snapshot", e);
+        }
+    }
+
+    /**
+     * Restore the session saved in the snapshot, if any: take the rest of
+     * its timeline from the snapshot (the settings it was compiled from may
+     * have changed since), and go on from the saved position. Boundaries that
+     * passed while we were gone are skipped silently, and if the whole
+     * session is over by now, it's just stopped.
+     * This runs in onCreate(), so it doesn't wait for the settings: the
+     * snapshot is all a session needs, and whatever depends on the settings
+     * (the cues, low power mode) catches up once they're loaded.
+     */
+    private void restoreSession()
+    {
+        long startTime = SystemClock.elapsedRealtime();
+        SessionSnapshot snapshot = SessionSnapshot.load(this);
+        if (snapshot == null)
+            return;
+
+        m_timeline = snapshot.getTimeline();
+        m_sessionUsesIntervals = snapshot.usesIntervals();
+        long segment = snapshot.getSegment();
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = m_timeline.getSegmentEnd(segment) -
+            snapshot.getMillisRemaining(now);
+        m_state = TimerState.RUNNING;
+        m_wakeupCount = 0;
+        m_timer.start(m_timeline, Math.max(elapsed, 0));
+        if (!m_timer.isStarted())
+        {
+            stopSession();
+            return;
+        }
+        if (snapshot.isPaused())
+        {
+            m_state = TimerState.PAUSED;
+            m_timer.pause();
+        }
+        m_currentInterval =
+            m_timeline.getIntervalNumber(m_timer.getCurrentSegment());
+        onSessionChanged();
+        Log.d(this.getClass().toString(), "Restored session in " +
+              (SystemClock.elapsedRealtime() - startTime) + "ms");
+    }
+
+    /**
+     * A new settings snapshot was loaded. Swap it in, and update whatever
+     * depends on it.
+     */
+    @Override
+    public void onSettingsLoaded(TimerSettings settings)
+    {
+        if (m_settings == null)
+        {
+            SharedPreferences prefs =
+                PreferenceManager.getDefaultSharedPreferences(this);
+            prefs.registerOnSharedPreferenceChangeListener(this);
+        }
+        m_settings = settings;
+        m_tracer.record(Tracer.EVENT_SETTINGS_LOADED, 1, 0);
+        updateCue();
+        onSessionChanged();
+    }
+
+    /**
+     * Make sure the settings are loaded, loading them right now if the
+     * background load didn't finish yet.
+     */
+    private void ensureSettings()
+    {
+        if (m_settings == null)
+            onSettingsLoaded(SettingsLoader.load(this));
+    }
+
+    /**
+     * Load the cue sound (ringtone) chosen in the settings.
+     */
+    private void updateCue()
+    {
+        m_cuePlayer.load(Uri.parse(m_settings.getRingtoneUri()));
+    }
+
+    /**
+     * A preference was changed. Update only what depends on it.
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key)
+    {
+        TimerSettings settings = null;
+        if (m_settings != null)
+            settings = SettingsLoader.update(this, prefs, m_settings, key);
+        if (settings == null)
+        {
+            // Not something we can update on its own (e.g. the program).
+            // Programs only take effect on the next start.
+            SettingsLoader.loadInBackground(this, this);
+            return;
+        }
+        m_settings = settings;
+        m_tracer.record(Tracer.EVENT_SETTINGS_LOADED, 0, 0);
+
+        if (key.equals(getString(R.string.pref_ringtone_key)))
+            updateCue();
+        else if (key.equals(getString(R.string.pref_nolock_key)) ||
+                 key.equals(getString(R.string.pref_precise_cue_key)) ||
+                 key.equals(getString(R.string.pref_low_power_key)) ||
+                 key.equals(getString(R.string.pref_display_decimals_key)))
+            onSessionChanged();
+        else
+        {
+            // One of the interval settings.
+            replanSession();
+            onSessionChanged();
+        }
+    }
+
+    /**
+     * Re-plan the rest of a running session according to the current
+     * interval settings. The current interval (or countdown) goes on as
+     * planned; only the intervals after it are changed.
+     */
+    private void replanSession()
+    {
+        if (m_state == TimerState.READY || !m_sessionUsesIntervals)
+            return;
+        long currentSegment = m_timer.getCurrentSegment();
+        long currentInterval = m_timeline.getIntervalNumber(currentSegment);
+        int intervalsLeft =
+            (int)Math.max(m_settings.getNumIntervals() - currentInterval, 0);
+        Timeline tail = Timeline.forIntervals(0,
+                m_settings.getIntervalLength(), intervalsLeft);
+        m_timeline = m_timeline.replaceAfter(currentSegment, tail);
+        m_timer.setTimeline(m_timeline);
+        saveSnapshot();
+    }
+
+    /**
+     * The session state, the current interval or the settings changed.
+     * Bring the cue schedule, the wake lock or alarm, the foreground state
+     * and the listener up to date.
+     */
+    private void onSessionChanged()
+    {
+        updateScheduledCue();
+        updateAlarm();
+
+        // Until the settings are loaded, keep the session awake.
+        if (m_state == TimerState.RUNNING &&
+            (m_settings == null || !m_settings.getLowPower()))
+        {
+            m_wakeLock.acquire();
+        }
+        else if (m_wakeLock.isHeld())
+            m_wakeLock.release();
+
+        if (m_state != TimerState.READY)
+            updateForeground();
+        else if (m_foreground)
+        {
+            stopForeground(true);
+            stopSelf();
+            m_foreground = false;
+        }
+
+        updateWidgets();
+        if (m_listener != null)
+            m_listener.onTimerStateChanged();
+    }
+
+    /**
+     * Keep the service started and in the foreground, and show the current
+     * state in its notification.
+     */
+    private void updateForeground()
+    {
+        if (m_foreground)
+        {
+            NotificationManager notificationManager =
+                (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+            notificationManager.notify(NOTIFICATION_ID, createNotification());
+            return;
+        }
+        // Started, so we outlive the activity unbinding.
+        startService(new Intent(this, TimerService.class));
+        m_notificationTime = System.currentTimeMillis();
+        startForeground(NOTIFICATION_ID, createNotification());
+        m_foreground = true;
+    }
+
+    /**
+     * Create the ongoing notification for the current state. Selecting it
+     * brings the timer activity back.
+     */
+    private Notification createNotification()
+    {
+        Notification notification = new Notification(R.drawable.icon, null,
+                m_notificationTime);
+        notification.flags |=
+            Notification.FLAG_ONGOING_EVENT | Notification.FLAG_NO_CLEAR;
+
+        notification.contentIntent = createActivityIntent();
+        notification.contentView =
+            createStatusViews(R.layout.timer_notification);
+        return notification;
+    }
+
+    /**
+     * Push the current state to all the home screen widgets. Selecting a
+     * widget brings the timer activity back.
+     */
+    private void updateWidgets()
+    {
+        RemoteViews views = createStatusViews(R.layout.timer_widget);
+        views.setOnClickPendingIntent(R.id.status_view,
+                createActivityIntent());
+        AppWidgetManager.getInstance(this).updateAppWidget(
+                new ComponentName(this, TimerWidgetProvider.class), views);
+    }
+
+    /**
+     * Create the intent that brings the timer activity back.
+     */
+    private PendingIntent createActivityIntent()
+    {
+        Intent intent = new Intent(this, TimerMainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return PendingIntent.getActivity(this, 0, intent, 0);
+    }
+
+    /**
+     * Create the views showing the current state, with the given layout (for
+     * the notification or a widget). The remaining time is shown in a
+     * Chronometer, which the system keeps updating by itself.
+     */
+    private RemoteViews createStatusViews(int layoutId)
+    {
+        RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+        views.setTextViewText(R.id.status_title, getTitleMessage());
+        views.setTextViewText(R.id.status_state, getStateMessage());
+        if (m_state == TimerState.READY || !m_timer.isStarted())
+        {
+            views.setViewVisibility(R.id.status_time, View.GONE);
+            return views;
+        }
+
+        views.setViewVisibility(R.id.status_time, View.VISIBLE);
+        boolean running = (m_state == TimerState.RUNNING);
+        long now = SystemClock.elapsedRealtime();
+        long segment = m_timer.getCurrentSegment();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            // In low power mode we're only woken up for the boundaries with
+            // a cue, so count down to the next of those.
+            if (m_settings != null && m_settings.getLowPower())
+                segment = m_timeline.findCueSegment(segment);
+            long remaining =
+                m_timeline.getSegmentEnd(segment) - m_timer.getElapsed();
+            // The count down shows the seconds rounded down, and the timer
+            // screen rounds them up.
+            long base = now + Math.min(remaining, Long.MAX_VALUE / 2) +
+                MILLIS_IN_SECOND - 1;
+            setChronometerCountDown(views);
+            views.setChronometer(R.id.status_time, base, null, running);
+        }
+        else
+        {
+            // No count down mode, so show the time into the segment.
+            long intoSegment =
+                m_timer.getElapsed() - m_timeline.getSegmentStart(segment);
+            views.setChronometer(R.id.status_time, now - intoSegment, null,
+                    running);
+        }
+        return views;
+    }
+
+    /**
+     * Set the status Chronometer to count down.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private void setChronometerCountDown(RemoteViews views)
+    {
+        views.setChronometerCountDown(R.id.status_time, true);
+    }
+
+    /**
+     * In precise cues mode, schedule the cue for the end of the current
+     * segment, and keep the audio stream running only while the timer is.
+     */
+    private void updateScheduledCue()
+    {
+        if (m_settings == null || !m_settings.getPreciseCues() ||
+            m_state != TimerState.RUNNING || !m_timer.isStarted())
+        {
+            m_scheduledCuePlayer.stop();
+            return;
+        }
+        m_scheduledCuePlayer.start();
+        long segment = m_timer.getCurrentSegment();
+        if (m_timeline.getSegmentCue(segment) == Program.CUE_NONE)
+            m_scheduledCuePlayer.cancelCue();
+        else
+        {
+            m_scheduledCuePlayer.scheduleCue(
+                    m_timer.getSegmentDeadline(segment));
+        }
+    }
+
+    /**
+     * In low power mode, register the alarm for the next boundary that needs
+     * attention, replacing the previous one. Otherwise, cancel it.
+     */
+    private void updateAlarm()
+    {
+        AlarmManager alarmManager = getAlarmManager();
+        if (m_settings == null || !m_settings.getLowPower() ||
+            m_state != TimerState.RUNNING || !m_timer.isStarted())
+        {
+            alarmManager.cancel(m_alarmIntent);
+            return;
+        }
+        long segment = m_timeline.findCueSegment(m_timer.getCurrentSegment());
+        long deadline = m_timer.getSegmentDeadline(segment);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            setAlarmAllowWhileIdle(alarmManager, deadline);
+        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            setExactAlarm(alarmManager, deadline);
+        else
+        {
+            // Alarms are always exact before KitKat.
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline,
+                    m_alarmIntent);
+        }
+    }
+
+    /**
+     * Register an exact alarm, that goes off in doze mode too.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setAlarmAllowWhileIdle(AlarmManager alarmManager,
+                                        long deadline)
+    {
+        alarmManager.setExactAndAllowWhileIdle(
+                AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline, m_alarmIntent);
+    }
+
+    /**
+     * Register an exact alarm.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void setExactAlarm(AlarmManager alarmManager, long deadline)
+    {
+        alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline,
+                m_alarmIntent);
+    }
+
+    /**
+     * Get the alarm manager.
+     */
+    private AlarmManager getAlarmManager()
+    {
+        return (AlarmManager)getSystemService(ALARM_SERVICE);
+    }
+
+    /**
+     * The boundary alarm went off. Stay awake long enough to play the cue,
+     * and deliver the boundary right away rather than on the next tick.
+     */
+    private void onBoundaryAlarm()
+    {
+        if (m_state != TimerState.RUNNING)
+            return;
+        m_cueWakeLock.acquire(CUE_WAKE_MILLIS);
+        m_wakeupCount++;
+        m_timer.tick();
+        // In case the boundary wasn't reached after all.
+        updateAlarm();
+        if (m_listener != null)
+            m_listener.onTimerStateChanged();
+    }
+
+    /**
+     * A timer tick event.
+     */
+    public void onTimerTick(int secondsTillFinish)
+    {
+        m_secondsTillFinish = secondsTillFinish;
+        if (m_listener != null && m_ticksEnabled)
+            m_listener.onTimerTick(secondsTillFinish);
+    }
+
+    /**
+     * An interval has finished.
+     */
+    public void onIntervalFinished()
+    {
+        // In precise cues mode, the cue for this boundary was already
+        // scheduled on the audio stream.
+        long currentSegment = m_timer.getCurrentSegment();
+        if ((m_settings == null || !m_settings.getPreciseCues()) &&
+            m_timeline.getSegmentCue(currentSegment - 1) != Program.CUE_NONE)
+        {
+            m_cuePlayer.play(m_timer.getLastBoundaryDeadline());
+        }
+        onTimerTick(0);
+        // The timer goes on to the next interval by itself, and stops after
+        // the last one.
+        if (m_timer.isStarted())
+        {
+            m_currentInterval = m_timeline.getIntervalNumber(currentSegment);
+            onSessionChanged();
+        }
+        else
+            stopSession();
+    }
+
+    /**
+     * Compile the timeline for a new session: the selected program, or the
+     * simple interval settings if there is none (or it's too long to run).
+     */
+    private Timeline compileTimeline()
+    {
+        Program program = m_settings.getProgram();
+        if (program != null)
+        {
+            try {
+                m_sessionUsesIntervals = false;
+                return program.compile();
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.e(this.getClass().toString(),
+                      "Couldn't compile program " + program.getName(), e);
+            }
+        }
+        m_sessionUsesIntervals = true;
+        return Timeline.forIntervals(m_settings.getCountdown(),
+                m_settings.getIntervalLength(), m_settings.getNumIntervals());
+    }
+}
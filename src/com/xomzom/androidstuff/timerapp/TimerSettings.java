@@ -0,0 +1,292 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+
+/**
+ * An immutable snapshot of the user settings, parsed into typed values.
+ * A new snapshot is created whenever the settings change, and swapped for
+ * the old one as a whole, so readers never see half updated settings, and
+ * never parse anything themselves.
+ *
+ * @see SettingsLoader
+ * @author dedi
+ */
+public final class TimerSettings
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The number of intervals.
+     */
+    private final int m_numIntervals;
+
+    /**
+     * The interval length, in seconds.
+     */
+    private final int m_intervalLength;
+
+    /**
+     * The countdown before the first interval, in seconds.
+     */
+    private final int m_countdown;
+
+    /**
+     * The selected program (preset), or null to use the interval settings.
+     */
+    private final Program m_program;
+
+    /**
+     * The ringtone URI, as a string.
+     */
+    private final String m_ringtoneUri;
+
+    /**
+     * The 'prevent screen locking' flag.
+     */
+    private final boolean m_preventLocking;
+
+    /**
+     * The 'precise cues' flag: play cues scheduled on the audio clock.
+     */
+    private final boolean m_preciseCues;
+
+    /**
+     * The 'low power' flag: let the device sleep between the boundaries.
+     */
+    private final boolean m_lowPower;
+
+    /**
+     * The number of decimal places the time is displayed with (0 for whole
+     * seconds).
+     */
+    private final int m_displayDecimals;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a settings snapshot with the given values.
+     */
+    public TimerSettings(int numIntervals, int intervalLength, int countdown,
+                         Program program, String ringtoneUri,
+                         boolean preventLocking, boolean preciseCues,
+                         boolean lowPower, int displayDecimals)
+    {
+        m_numIntervals = numIntervals;
+        m_intervalLength = intervalLength;
+        m_countdown = countdown;
+        m_program = program;
+        m_ringtoneUri = ringtoneUri;
+        m_preventLocking = preventLocking;
+        m_preciseCues = preciseCues;
+        m_lowPower = lowPower;
+        m_displayDecimals = displayDecimals;
+    }
+
+    /**
+     * Get the number of intervals.
+     */
+    public int getNumIntervals()
+    {
+        return m_numIntervals;
+    }
+
+    /**
+     * Get the interval length, in seconds.
+     */
+    public int getIntervalLength()
+    {
+        return m_intervalLength;
+    }
+
+    /**
+     * Get the countdown before the first interval, in seconds.
+     */
+    public int getCountdown()
+    {
+        return m_countdown;
+    }
+
+    /**
+     * Get the selected program, or null if the interval settings should be
+     * used.
+     */
+    public Program getProgram()
+    {
+        return m_program;
+    }
+
+    /**
+     * Get the ringtone URI, as a string.
+     */
+    public String getRingtoneUri()
+    {
+        return m_ringtoneUri;
+    }
+
+    /**
+     * Get the 'prevent screen locking' flag.
+     */
+    public boolean getPreventLocking()
+    {
+        return m_preventLocking;
+    }
+
+    /**
+     * Get the 'precise cues' flag. Always false in low power mode: the
+     * precise cues need an audio stream running for the whole session, which
+     * would keep the device awake.
+     */
+    public boolean getPreciseCues()
+    {
+        return m_preciseCues && !m_lowPower;
+    }
+
+    /**
+     * Get the 'low power' flag.
+     */
+    public boolean getLowPower()
+    {
+        return m_lowPower;
+    }
+
+    /**
+     * Get the number of decimal places the time is displayed with (0 for
+     * whole seconds).
+     */
+    public int getDisplayDecimals()
+    {
+        return m_displayDecimals;
+    }
+
+    /**
+     * Get a copy of this snapshot with a different number of intervals.
+     */
+    public TimerSettings withNumIntervals(int numIntervals)
+    {
+        return new TimerSettings(numIntervals, m_intervalLength, m_countdown,
+                m_program, m_ringtoneUri, m_preventLocking, m_preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different interval length.
+     */
+    public TimerSettings withIntervalLength(int intervalLength)
+    {
+        return new TimerSettings(m_numIntervals, intervalLength, m_countdown,
+                m_program, m_ringtoneUri, m_preventLocking, m_preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different countdown.
+     */
+    public TimerSettings withCountdown(int countdown)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, countdown,
+                m_program, m_ringtoneUri, m_preventLocking, m_preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different ringtone.
+     */
+    public TimerSettings withRingtoneUri(String ringtoneUri)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, m_countdown,
+                m_program, ringtoneUri, m_preventLocking, m_preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different screen locking flag.
+     */
+    public TimerSettings withPreventLocking(boolean preventLocking)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, m_countdown,
+                m_program, m_ringtoneUri, preventLocking, m_preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different precise cues flag.
+     */
+    public TimerSettings withPreciseCues(boolean preciseCues)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, m_countdown,
+                m_program, m_ringtoneUri, m_preventLocking, preciseCues,
+                m_lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different low power flag.
+     */
+    public TimerSettings withLowPower(boolean lowPower)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, m_countdown,
+                m_program, m_ringtoneUri, m_preventLocking, m_preciseCues,
+                lowPower, m_displayDecimals);
+    }
+
+    /**
+     * Get a copy of this snapshot with a different number of display
+     * decimals.
+     */
+    public TimerSettings withDisplayDecimals(int displayDecimals)
+    {
+        return new TimerSettings(m_numIntervals, m_intervalLength, m_countdown,
+                m_program, m_ringtoneUri, m_preventLocking, m_preciseCues,
+                m_lowPower, displayDecimals);
+    }
+
+    /**
+     * Helper method: parse an int setting, which is stored as a string.
+     *
+     * @param value The stored value.
+     * @param defaultValue The value to use if the stored value is not an int.
+     */
+    public static int parseInt(String value, int defaultValue)
+    {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * PeriodicTimer - a simple Interval Timer for Android
+ * Copyright (c) 2010-2013, Dedi Hirschfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of the <organization> nor the
+ *     names of its contributors may be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DEDI HIRSCHFELD BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.xomzom.androidstuff.timerapp;
+
+import java.io.PrintWriter;
+
+/**
+ * Records the timer's events (ticks, boundaries, cues, session state changes
+ * and settings reloads) into a ring buffer, to be exported in the Chrome
+ * trace event format, which Perfetto and chrome://tracing can show on a
+ * timeline.
+ * Each event is a type, a time and two int arguments, stored in preallocated
+ * arrays, so recording never allocates or builds strings; when tracing is
+ * off, recording is a single flag check. The buffer is only allocated when
+ * tracing is first turned on, and then keeps the last CAPACITY events.
+ * Events may be recorded from any thread.
+ *
+ * @author dedi
+ */
+public final class Tracer
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The event types. The meaning of the arguments of each is given by
+     * EVENT_ARGS.
+     */
+    public final static int EVENT_TICK = 0;
+    public final static int EVENT_BOUNDARY = 1;
+    public final static int EVENT_FINISHED = 2;
+    public final static int EVENT_CUE_REQUESTED = 3;
+    public final static int EVENT_CUE_STARTED = 4;
+    public final static int EVENT_SESSION_STARTED = 5;
+    public final static int EVENT_SESSION_PAUSED = 6;
+    public final static int EVENT_SESSION_RESUMED = 7;
+    public final static int EVENT_SESSION_STOPPED = 8;
+    public final static int EVENT_SETTINGS_LOADED = 9;
+
+    /**
+     * The event names, by type.
+     */
+    private final static String[] EVENT_NAMES = {
+        "tick", "boundary", "finished", "cue requested", "cue started",
+        "started", "paused", "resumed", "stopped", "settings loaded"
+    };
+
+    /**
+     * The names of the two arguments of each event type, or null for an
+     * unused argument.
+     */
+    private final static String[][] EVENT_ARGS = {
+        { "segment", "remaining_ms" },    // EVENT_TICK
+        { "segment", "late_ms" },         // EVENT_BOUNDARY
+        { "drift_ms", null },             // EVENT_FINISHED
+        { "due_in_ms", "scheduled" },     // EVENT_CUE_REQUESTED
+        { "late_ms", "scheduled" },       // EVENT_CUE_STARTED
+        { "segment", null },              // EVENT_SESSION_STARTED
+        { "segment", null },              // EVENT_SESSION_PAUSED
+        { "segment", null },              // EVENT_SESSION_RESUMED
+        { "segment", null },              // EVENT_SESSION_STOPPED
+        { "full", null },                 // EVENT_SETTINGS_LOADED
+    };
+
+    /**
+     * The trace thread (track) of each event type: the timer, the cues, or
+     * the session.
+     */
+    private final static int[] EVENT_TRACKS = { 1, 1, 1, 2, 2, 3, 3, 3, 3, 3 };
+
+    /**
+     * The track names, by track number - 1.
+     */
+    private final static String[] TRACK_NAMES = { "Timer", "Cues", "Session" };
+
+    /**
+     * The number of events kept (a power of 2).
+     */
+    public final static int CAPACITY = 1 << 14;
+
+
+    //
+    // Members.
+    //
+
+    /**
+     * true while events are recorded.
+     */
+    private volatile boolean m_enabled;
+
+    /**
+     * The event times (System.nanoTime()), types and arguments, indexed by
+     * the event's sequence number modulo CAPACITY. null until tracing is
+     * first turned on.
+     */
+    private long[] m_times;
+    private byte[] m_types;
+    private int[] m_args1;
+    private int[] m_args2;
+
+    /**
+     * The number of events recorded since the buffer was last cleared.
+     */
+    private long m_count;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Turn tracing on or off. The recorded events are kept either way.
+     */
+    public synchronized void setEnabled(boolean enabled)
+    {
+        if (enabled && m_times == null)
+        {
+            m_times = new long[CAPACITY];
+            m_types = new byte[CAPACITY];
+            m_args1 = new int[CAPACITY];
+            m_args2 = new int[CAPACITY];
+        }
+        m_enabled = enabled;
+    }
+
+    /**
+     * Check if tracing is on.
+     */
+    public boolean isEnabled()
+    {
+        return m_enabled;
+    }
+
+    /**
+     * Record an event, if tracing is on.
+     *
+     * @param type The event type (one of the EVENT_ constants).
+     * @param arg1 The first argument, or 0 if the type has none.
+     * @param arg2 The second argument, or 0 if the type has none.
+     */
+    public void record(int type, long arg1, long arg2)
+    {
+        if (!m_enabled)
+            return;
+        long time = System.nanoTime();
+        synchronized (this)
+        {
+            int index = index(m_count);
+            m_times[index] = time;
+            m_types[index] = (byte)type;
+            m_args1[index] = clamp(arg1);
+            m_args2[index] = clamp(arg2);
+            m_count++;
+        }
+    }
+
+    /**
+     * Get the number of events in the buffer.
+     */
+    public synchronized int getEventCount()
+    {
+        return (int)Math.min(m_count, CAPACITY);
+    }
+
+    /**
+     * Drop all the recorded events.
+     */
+    public synchronized void clear()
+    {
+        m_count = 0;
+    }
+
+    /**
+     * Write the recorded events, oldest first, as a Chrome trace event JSON
+     * file. Times are in microseconds since the oldest event.
+     * The events are copied out while holding the lock, and formatted and
+     * written without it, so a slow write never blocks record() (which the
+     * audio thread calls). Call it on a background thread.
+     */
+    public void writeJson(PrintWriter out)
+    {
+        int count;
+        long[] times;
+        byte[] types;
+        int[] args1;
+        int[] args2;
+        synchronized (this)
+        {
+            count = getEventCount();
+            times = new long[count];
+            types = new byte[count];
+            args1 = new int[count];
+            args2 = new int[count];
+            long first = m_count - count;
+            for (int i = 0; i < count; i++)
+            {
+                int index = index(first + i);
+                times[i] = m_times[index];
+                types[i] = m_types[index];
+                args1[i] = m_args1[index];
+                args2[i] = m_args2[index];
+            }
+        }
+
+        out.print("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (int track = 1; track <= TRACK_NAMES.length; track++)
+        {
+            out.print((track == 1 ? "\n" : ",\n") +
+                      "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1," +
+                      "\"tid\":" + track + ",\"args\":{\"name\":\"" +
+                      TRACK_NAMES[track - 1] + "\"}}");
+        }
+
+        long baseTime = (count == 0 ? 0 : times[0]);
+        for (int i = 0; i < count; i++)
+        {
+            int type = types[i];
+            out.print(",\n{\"name\":\"" + EVENT_NAMES[type] +
+                      "\",\"ph\":\"i\",\"s\":\"t\",\"pid\":1,\"tid\":" +
+                      EVENT_TRACKS[type] + ",\"ts\":" +
+                      (times[i] - baseTime) / 1000 + ",\"args\":{");
+            String[] argNames = EVENT_ARGS[type];
+            if (argNames[0] != null)
+                out.print("\"" + argNames[0] + "\":" + args1[i]);
+            if (argNames[1] != null)
+                out.print(",\"" + argNames[1] + "\":" + args2[i]);
+            out.print("}}");
+        }
+        out.println("\n]}");
+    }
+
+    /**
+     * Get the buffer index of the given event sequence number.
+     */
+    private static int index(long sequence)
+    {
+        return (int)(sequence & (CAPACITY - 1));
+    }
+
+    /**
+     * Clamp an argument to the int range.
+     */
+    private static int clamp(long value)
+    {
+        return (int)Math.max(Math.min(value, Integer.MAX_VALUE),
+                             Integer.MIN_VALUE);
+    }
+}